@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+
+import bench.Cargas;
+
+/** Carga de bench.AgregacaoBench. */
+public class CargaAgregacao implements Cargas.Agregacao {
+
+    private byte[] vetor;
+    private ByteBuffer dados;
+    private final Agregacao.Consulta[] consultas = new Agregacao.Consulta[8];
+
+    @Override
+    public void preparar(int tamanho) {
+        vetor = new byte[tamanho];
+        GeradorVetor.preencher(vetor, 42);
+        dados = ByteBuffer.wrap(vetor);
+        for (int i = 0; i < consultas.length; i++) {
+            consultas[i] = Agregacao.Consulta.faixa((byte) (-100 + 20 * i), (byte) (-80 + 20 * i)).comTopK(4);
+        }
+    }
+
+    @Override
+    public long fundidas() {
+        long[] tabela = new long[Histograma.TAMANHO];
+        Histograma.somar(tabela, ContagemParalela.histograma(dados));
+        return Agregacao.avaliar(consultas, tabela)[0].contagem;
+    }
+
+    @Override
+    public long separadas() {
+        long total = 0;
+        for (Agregacao.Consulta c : consultas) {
+            long contagem = 0;
+            long soma = 0;
+            for (byte b : vetor) {
+                if (b >= c.minimo && b <= c.maximo) {
+                    contagem++;
+                    soma += b;
+                }
+            }
+            total += contagem + soma;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,37 @@
+import java.nio.ByteBuffer;
+
+import bench.Cargas;
+
+/** Carga de bench.ContagemBench. */
+public class CargaContagem implements Cargas.Contagem {
+
+    private byte[] vetor;
+    private ByteBuffer direto;
+    private byte procurado;
+    private KernelContagem kernel;
+
+    @Override
+    public void preparar(int tamanho, String nome) {
+        vetor = new byte[tamanho];
+        GeradorVetor.preencher(vetor, 42);
+        direto = ByteBuffer.allocateDirect(tamanho);
+        direto.put(0, vetor);
+        procurado = vetor[tamanho / 2];
+        kernel = KernelContagem.selecionar(nome);
+    }
+
+    @Override
+    public int pedido() {
+        return Pedido.contar(vetor, 0, vetor.length, procurado);
+    }
+
+    @Override
+    public int kernel() {
+        return kernel.contar(vetor, 0, vetor.length, procurado);
+    }
+
+    @Override
+    public int kernelDireto() {
+        return kernel.contar(direto, procurado);
+    }
+}
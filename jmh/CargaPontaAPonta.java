@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import bench.Cargas;
+
+/**
+ * Carga de bench.PontaAPontaBench: sobe os receptores em threads daemon
+ * deste processo e desliga os logs [D]/[R] enquanto mede.
+ */
+public class CargaPontaAPonta implements Cargas.PontaAPonta {
+
+    private static final int BLOCKS_PER_SERVER = 8;
+
+    private final List<ServerSocket> servidores = new ArrayList<>();
+    private String[] receptors;
+    private byte[] vetor;
+    private VetorSegmentado direto; // null: rodadas sobre o byte[]
+    private byte procurado;
+    private PrintStream saida;
+
+    @Override
+    public void preparar(int tamanho, int quantidade, boolean foraDoHeap) throws IOException {
+        vetor = new byte[tamanho];
+        GeradorVetor.preencher(vetor, 42);
+        procurado = vetor[tamanho / 2];
+        if (foraDoHeap) {
+            direto = GeradorVetor.gerar(tamanho, 42);
+        }
+        receptors = new String[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            ServerSocket serverSocket = ReceptorServer.abrirServidor(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            servidores.add(serverSocket);
+            Thread servidor = new Thread(() -> {
+                try {
+                    ReceptorServer.servir(serverSocket);
+                } catch (IOException e) {
+                    // fechado no encerrar()
+                }
+            });
+            servidor.setDaemon(true);
+            servidor.start();
+            receptors[i] = "127.0.0.1:" + serverSocket.getLocalPort();
+        }
+        saida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Override
+    public long rodada(String protocolo) {
+        System.setProperty("protocolo", protocolo);
+        if (direto != null) {
+            return Distribuidor.executarContagemDistribuida(direto, Distribuidor.SEM_CACHE, procurado,
+                    receptors, BLOCKS_PER_SERVER);
+        }
+        return Distribuidor.executarContagemDistribuida(vetor, procurado, receptors, BLOCKS_PER_SERVER);
+    }
+
+    @Override
+    public void encerrar() throws IOException {
+        System.setOut(saida);
+        for (ServerSocket s : servidores) {
+            s.close();
+        }
+    }
+}
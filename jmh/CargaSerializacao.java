@@ -0,0 +1,71 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bench.Cargas;
+
+/** Carga de bench.SerializacaoBench. */
+public class CargaSerializacao implements Cargas.Serializacao {
+
+    private final List<Pedido> pedidos = new ArrayList<>();
+    private BufferMemoria buffer;
+
+    @Override
+    public void preparar(int quantidade, int tamanhoPedido) {
+        byte[] vetor = new byte[quantidade * tamanhoPedido];
+        GeradorVetor.preencher(vetor, 42);
+        byte procurado = vetor[vetor.length / 2];
+        for (int i = 0; i < quantidade; i++) {
+            pedidos.add(new Pedido(Arrays.copyOfRange(vetor, i * tamanhoPedido, (i + 1) * tamanhoPedido), procurado));
+        }
+        // folga para os cabeçalhos da serialização Java
+        buffer = new BufferMemoria(vetor.length + 64 * 1024);
+    }
+
+    @Override
+    public long java() throws IOException, ClassNotFoundException {
+        buffer.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(pedidos);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(buffer.leitura())) {
+            @SuppressWarnings("unchecked")
+            List<Pedido> lidos = (List<Pedido>) in.readObject();
+            return lidos.size();
+        }
+    }
+
+    @Override
+    public long binario() throws IOException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (Pedido p : pedidos) {
+            Protocolo.escreverPedido(out, 1, p);
+        }
+        out.flush();
+        DataInputStream in = new DataInputStream(buffer.leitura());
+        long lidos = 0;
+        for (int i = 0; i < pedidos.size(); i++) {
+            lidos += Protocolo.lerPedido(in, Protocolo.lerCabecalho(in)).getNumeros().length;
+        }
+        return lidos;
+    }
+
+    /** ByteArrayOutputStream que deixa reler o conteúdo sem a cópia de toByteArray(). */
+    private static final class BufferMemoria extends ByteArrayOutputStream {
+        BufferMemoria(int tamanho) {
+            super(tamanho);
+        }
+
+        ByteArrayInputStream leitura() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lote de oito consultas agregadas sobre o mesmo vetor: fundidas numa
+ * passada (histograma + Agregacao.avaliar, como no receptor) contra uma
+ * passada por consulta. "bytes" conta o vetor uma vez por operação nos dois.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AgregacaoBench {
+
+    @Param({ "67108864" })
+    int tamanho;
+
+    Cargas.Agregacao carga;
+
+    @Setup
+    public void preparar() {
+        carga = Cargas.carregar(Cargas.Agregacao.class, "CargaAgregacao");
+        carga.preparar(tamanho);
+    }
+
+    @Benchmark
+    public void fundidas(Vazao vazao, Blackhole bh) {
+        bh.consume(carga.fundidas());
+        vazao.bytes += tamanho;
+    }
+
+    @Benchmark
+    public void separadas(Vazao vazao, Blackhole bh) {
+        bh.consume(carga.separadas());
+        vazao.bytes += tamanho;
+    }
+}
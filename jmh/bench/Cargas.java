@@ -0,0 +1,65 @@
+package bench;
+
+/**
+ * O que cada benchmark mede, visto do pacote bench.
+ *
+ * O JMH não aceita benchmarks no pacote padrão, e de um pacote com nome não
+ * dá para referenciar as classes do projeto (que estão no pacote padrão).
+ * Então cada grupo é uma interface aqui, implementada por uma classe Carga*
+ * do pacote padrão em jmh/ e instanciada por nome com carregar(). As
+ * chamadas pela interface têm um só implementador, e o JIT as inlina.
+ */
+public final class Cargas {
+
+    private Cargas() {}
+
+    /** Pedido.contar e os kernels, sobre byte[] e sobre buffer direto. */
+    public interface Contagem {
+        /** Vetor de "tamanho" bytes; "kernel" é um nome de KernelContagem.selecionar. */
+        void preparar(int tamanho, String kernel);
+
+        int pedido();
+
+        int kernel();
+
+        int kernelDireto();
+    }
+
+    /** Oito consultas de faixa fundidas numa passada contra uma passada por consulta. */
+    public interface Agregacao {
+        void preparar(int tamanho);
+
+        long fundidas();
+
+        long separadas();
+    }
+
+    /** List&lt;Pedido&gt; por ObjectOutputStream contra os mesmos bytes em quadros binários. */
+    public interface Serializacao {
+        void preparar(int pedidos, int tamanhoPedido);
+
+        long java() throws Exception;
+
+        long binario() throws Exception;
+    }
+
+    /**
+     * executarContagemDistribuida contra receptores neste processo, via
+     * loopback, com o vetor num byte[] ou fora do heap ("direto").
+     */
+    public interface PontaAPonta {
+        void preparar(int tamanho, int receptores, boolean direto) throws Exception;
+
+        long rodada(String protocolo);
+
+        void encerrar() throws Exception;
+    }
+
+    static <T> T carregar(Class<T> tipo, String classe) {
+        try {
+            return tipo.cast(Class.forName(classe).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Carga " + classe + " indisponível", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Contagem: Pedido.contar (kernel ativo, -Dkernel) e cada kernel pelo nome,
+ * do tamanho de um chunk pequeno (4K, cabe no L1) até 64M (memória).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContagemBench {
+
+    @State(Scope.Benchmark)
+    public static class Vetor {
+        @Param({ "4096", "262144", "4194304", "67108864" })
+        int tamanho;
+
+        Cargas.Contagem carga;
+
+        @Setup
+        public void preparar() {
+            carga = Cargas.carregar(Cargas.Contagem.class, "CargaContagem");
+            carga.preparar(tamanho, "swar");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Kernel {
+        @Param({ "4096", "262144", "4194304", "67108864" })
+        int tamanho;
+
+        @Param({ "escalar", "swar", "vetorial" })
+        String kernel;
+
+        Cargas.Contagem carga;
+
+        @Setup
+        public void preparar() {
+            carga = Cargas.carregar(Cargas.Contagem.class, "CargaContagem");
+            carga.preparar(tamanho, kernel);
+        }
+    }
+
+    @Benchmark
+    public void pedido(Vetor v, Vazao vazao, Blackhole bh) {
+        bh.consume(v.carga.pedido());
+        vazao.bytes += v.tamanho;
+    }
+
+    @Benchmark
+    public void kernel(Kernel k, Vazao vazao, Blackhole bh) {
+        bh.consume(k.carga.kernel());
+        vazao.bytes += k.tamanho;
+    }
+
+    @Benchmark
+    public void kernelDireto(Kernel k, Vazao vazao, Blackhole bh) {
+        bh.consume(k.carga.kernelDireto());
+        vazao.bytes += k.tamanho;
+    }
+}
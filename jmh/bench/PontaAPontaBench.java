@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rodada completa de executarContagemDistribuida contra receptores
+ * ReceptorServer neste processo, via loopback, nos dois protocolos, e com
+ * o vetor no heap ou fora dele (como o Distribuidor aloca o seu), cujas
+ * fatias vão para o socket sem cópia. Com -prof gc, gc.alloc.rate.norm soma
+ * o distribuidor e os receptores; AlocacaoEnvioTest usa este caso para
+ * limitar a alocação por MB enviado.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PontaAPontaBench {
+
+    @Param({ "67108864" })
+    int tamanho;
+
+    @Param({ "2" })
+    int receptores;
+
+    @Param({ "binario", "legado" })
+    String protocolo;
+
+    @Param({ "heap", "direto" })
+    String vetor;
+
+    Cargas.PontaAPonta carga;
+
+    @Setup
+    public void preparar() throws Exception {
+        carga = Cargas.carregar(Cargas.PontaAPonta.class, "CargaPontaAPonta");
+        carga.preparar(tamanho, receptores, vetor.equals("direto"));
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        carga.encerrar();
+    }
+
+    @Benchmark
+    public void rodada(Vazao vazao, Blackhole bh) {
+        bh.consume(carga.rodada(protocolo));
+        vazao.bytes += tamanho;
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ida e volta de uma List&lt;Pedido&gt; em memória: serialização Java contra
+ * os quadros do Protocolo binário. Com -prof gc, gc.alloc.rate.norm mostra
+ * quanto cada um aloca por lista.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializacaoBench {
+
+    @Param({ "8" })
+    int pedidos;
+
+    @Param({ "65536", "1048576" })
+    int tamanhoPedido;
+
+    Cargas.Serializacao carga;
+
+    @Setup
+    public void preparar() {
+        carga = Cargas.carregar(Cargas.Serializacao.class, "CargaSerializacao");
+        carga.preparar(pedidos, tamanhoPedido);
+    }
+
+    @Benchmark
+    public void java(Vazao vazao, Blackhole bh) throws Exception {
+        bh.consume(carga.java());
+        vazao.bytes += (long) pedidos * tamanhoPedido;
+    }
+
+    @Benchmark
+    public void binario(Vazao vazao, Blackhole bh) throws Exception {
+        bh.consume(carga.binario());
+        vazao.bytes += (long) pedidos * tamanhoPedido;
+    }
+}
@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bytes processados, como contador auxiliar do JMH: no modo thrpt a linha
+ * ":bytes" do relatório sai em bytes por segundo (÷ 1e9 para GB/s), seja
+ * qual for o @Param de tamanho do caso.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Vazao {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void zerar() {
+        bytes = 0;
+    }
+}
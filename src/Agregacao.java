@@ -0,0 +1,282 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consultas agregadas sobre o vetor: um predicado de igualdade ou de faixa
+ * (x == v, a <= x <= b) e, para os elementos que o satisfazem, contagem,
+ * soma, mínimo, máximo e os k maiores valores.
+ *
+ * Com elementos de um byte o histograma de 256 posições de um shard basta
+ * para responder qualquer uma dessas consultas. Por isso o receptor faz uma
+ * única passada (o histograma do lote, ver ContagemParalela) e avalia o lote
+ * inteiro de consultas sobre a tabela: N consultas custam uma leitura da
+ * memória, não N. Cada receptor devolve um Parcial por consulta, e o
+ * Distribuidor combina os parciais (combinar) num resultado exato.
+ */
+public final class Agregacao {
+
+    private Agregacao() {}
+
+    /** Descritor de uma consulta. Igualdade é a faixa [v, v]. */
+    public static final class Consulta {
+        public final byte minimo;
+        public final byte maximo;
+        public final int topK; // 0: sem top-k
+
+        public Consulta(byte minimo, byte maximo, int topK) {
+            if (minimo > maximo) {
+                throw new IllegalArgumentException("Faixa vazia: " + minimo + ".." + maximo);
+            }
+            if (topK < 0) {
+                throw new IllegalArgumentException("top-k negativo: " + topK);
+            }
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.topK = topK;
+        }
+
+        public static Consulta igual(byte valor) {
+            return new Consulta(valor, valor, 0);
+        }
+
+        public static Consulta faixa(byte minimo, byte maximo) {
+            return new Consulta(minimo, maximo, 0);
+        }
+
+        public Consulta comTopK(int k) {
+            return new Consulta(minimo, maximo, k);
+        }
+
+        /**
+         * Lê uma consulta digitada: "v", "a..b", com " top k" opcional
+         * (ex.: "-10..10 top 5").
+         * @throws IllegalArgumentException se o texto não é uma consulta válida.
+         */
+        public static Consulta interpretar(String texto) {
+            String[] partes = texto.trim().split("\\s+");
+            int k = 0;
+            if (partes.length == 3 && partes[1].equalsIgnoreCase("top")) {
+                k = Integer.parseInt(partes[2]);
+            } else if (partes.length != 1) {
+                throw new IllegalArgumentException("Use \"v\" ou \"a..b\", com \" top k\" opcional");
+            }
+            int separador = partes[0].indexOf("..", 1); // "-5..3": o sinal não é separador
+            int a = Integer.parseInt(separador < 0 ? partes[0] : partes[0].substring(0, separador));
+            int b = separador < 0 ? a : Integer.parseInt(partes[0].substring(separador + 2));
+            if (a < Byte.MIN_VALUE || b > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Valor fora do intervalo de byte");
+            }
+            return new Consulta((byte) a, (byte) b, k);
+        }
+
+        @Override
+        public String toString() {
+            String predicado = minimo == maximo ? "x == " + minimo : minimo + " <= x <= " + maximo;
+            return topK > 0 ? predicado + ", top " + topK : predicado;
+        }
+    }
+
+    /**
+     * Resultado (parcial ou final) de uma consulta. Mínimo e máximo só valem
+     * com contagem > 0. O top-k vem como pares (valor, repetições), do maior
+     * valor para o menor, somando no máximo k repetições.
+     */
+    public static final class Parcial {
+        public final long contagem;
+        public final long soma;
+        public final byte minimo;
+        public final byte maximo;
+        public final byte[] topValores;
+        public final long[] topRepeticoes;
+
+        Parcial(long contagem, long soma, byte minimo, byte maximo, byte[] topValores, long[] topRepeticoes) {
+            this.contagem = contagem;
+            this.soma = soma;
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.topValores = topValores;
+            this.topRepeticoes = topRepeticoes;
+        }
+
+        public double media() {
+            return contagem > 0 ? soma / (double) contagem : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            if (contagem == 0) return "contagem 0";
+            StringBuilder sb = new StringBuilder(String.format("contagem %d, soma %d, média %.3f, mín %d, máx %d",
+                    contagem, soma, media(), minimo, maximo));
+            if (topValores.length > 0) {
+                sb.append(", top [");
+                for (int i = 0; i < topValores.length; i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(topValores[i]);
+                    if (topRepeticoes[i] > 1) sb.append(" x").append(topRepeticoes[i]);
+                }
+                sb.append(']');
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Avalia todas as consultas sobre um histograma (índice = valor & 0xFF). */
+    public static Parcial[] avaliar(Consulta[] consultas, long[] tabela) {
+        Parcial[] resultado = new Parcial[consultas.length];
+        for (int i = 0; i < consultas.length; i++) {
+            resultado[i] = avaliar(consultas[i], tabela);
+        }
+        return resultado;
+    }
+
+    private static Parcial avaliar(Consulta c, long[] tabela) {
+        long contagem = 0;
+        long soma = 0;
+        int minimo = Integer.MAX_VALUE;
+        int maximo = Integer.MIN_VALUE;
+        for (int v = c.minimo; v <= c.maximo; v++) {
+            long n = tabela[v & 0xFF];
+            if (n == 0) continue;
+            contagem += n;
+            soma += v * n;
+            minimo = Math.min(minimo, v);
+            maximo = v;
+        }
+        // top-k: do maior valor da faixa para baixo até juntar k repetições
+        List<Integer> valores = new ArrayList<>();
+        List<Long> repeticoes = new ArrayList<>();
+        long restante = c.topK;
+        for (int v = c.maximo; v >= c.minimo && restante > 0; v--) {
+            long n = Math.min(tabela[v & 0xFF], restante);
+            if (n == 0) continue;
+            valores.add(v);
+            repeticoes.add(n);
+            restante -= n;
+        }
+        byte[] topValores = new byte[valores.size()];
+        long[] topRepeticoes = new long[valores.size()];
+        for (int i = 0; i < topValores.length; i++) {
+            topValores[i] = (byte) (int) valores.get(i);
+            topRepeticoes[i] = repeticoes.get(i);
+        }
+        return contagem == 0
+                ? new Parcial(0, 0, (byte) 0, (byte) 0, topValores, topRepeticoes)
+                : new Parcial(contagem, soma, (byte) minimo, (byte) maximo, topValores, topRepeticoes);
+    }
+
+    /**
+     * Combina os parciais de dois conjuntos disjuntos de shards. O top-k
+     * combinado é exato: os k maiores do todo estão entre os k maiores de cada parte.
+     */
+    public static Parcial[] combinar(Consulta[] consultas, Parcial[] a, Parcial[] b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        Parcial[] resultado = new Parcial[consultas.length];
+        for (int i = 0; i < consultas.length; i++) {
+            resultado[i] = combinar(consultas[i], a[i], b[i]);
+        }
+        return resultado;
+    }
+
+    private static Parcial combinar(Consulta c, Parcial a, Parcial b) {
+        if (a.contagem == 0) return b; // sem elementos na faixa também não há top-k
+        if (b.contagem == 0) return a;
+        // o top-k das duas partes vira um histograma pequeno, reavaliado com o mesmo k
+        long[] tabela = new long[Histograma.TAMANHO];
+        for (Parcial p : new Parcial[] { a, b }) {
+            for (int i = 0; i < p.topValores.length; i++) {
+                tabela[p.topValores[i] & 0xFF] += p.topRepeticoes[i];
+            }
+        }
+        Parcial top = avaliar(c, tabela);
+        return new Parcial(a.contagem + b.contagem, a.soma + b.soma,
+                (byte) Math.min(a.minimo, b.minimo), (byte) Math.max(a.maximo, b.maximo),
+                top.topValores, top.topRepeticoes);
+    }
+
+    // --- FORMATO NO FIO (payloads de OP_AGREGAR e OP_RESPOSTA_AGREGADOS, ver Protocolo) ---
+
+    /** quantidade(int) + por consulta: minimo(1) + maximo(1) + topK(4). */
+    static int tamanhoConsultas(Consulta[] consultas) {
+        return 4 + consultas.length * 6;
+    }
+
+    static void escreverConsultas(DataOutputStream out, Consulta[] consultas) throws IOException {
+        out.writeInt(consultas.length);
+        for (Consulta c : consultas) {
+            out.writeByte(c.minimo);
+            out.writeByte(c.maximo);
+            out.writeInt(c.topK);
+        }
+    }
+
+    static Consulta[] lerConsultas(DataInputStream in, int tamanhoPayload) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || tamanhoPayload != 4 + n * 6) {
+            throw new StreamCorruptedException("Lote de consultas com tamanho inválido: " + tamanhoPayload);
+        }
+        Consulta[] consultas = new Consulta[n];
+        for (int i = 0; i < n; i++) {
+            byte minimo = in.readByte();
+            byte maximo = in.readByte();
+            int topK = in.readInt();
+            try {
+                consultas[i] = new Consulta(minimo, maximo, topK);
+            } catch (IllegalArgumentException e) {
+                throw new StreamCorruptedException("Consulta inválida: " + e.getMessage());
+            }
+        }
+        return consultas;
+    }
+
+    /** quantidade(int) + por parcial: contagem(8) + soma(8) + min(1) + max(1) + pares(2) + 9 por par. */
+    static int tamanhoParciais(Parcial[] parciais) {
+        int tamanho = 4;
+        for (Parcial p : parciais) tamanho += 20 + p.topValores.length * 9;
+        return tamanho;
+    }
+
+    static void escreverParciais(DataOutputStream out, Parcial[] parciais) throws IOException {
+        out.writeInt(parciais.length);
+        for (Parcial p : parciais) {
+            out.writeLong(p.contagem);
+            out.writeLong(p.soma);
+            out.writeByte(p.minimo);
+            out.writeByte(p.maximo);
+            out.writeShort(p.topValores.length);
+            for (int i = 0; i < p.topValores.length; i++) {
+                out.writeByte(p.topValores[i]);
+                out.writeLong(p.topRepeticoes[i]);
+            }
+        }
+    }
+
+    static Parcial[] lerParciais(DataInputStream in, int tamanhoPayload) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > tamanhoPayload / 20) {
+            throw new StreamCorruptedException("Resposta agregada com tamanho inválido: " + tamanhoPayload);
+        }
+        Parcial[] parciais = new Parcial[n];
+        int lidos = 4;
+        for (int i = 0; i < n; i++) {
+            long contagem = in.readLong();
+            long soma = in.readLong();
+            byte minimo = in.readByte();
+            byte maximo = in.readByte();
+            int pares = in.readUnsignedShort();
+            byte[] valores = new byte[pares];
+            long[] repeticoes = new long[pares];
+            for (int j = 0; j < pares; j++) {
+                valores[j] = in.readByte();
+                repeticoes[j] = in.readLong();
+            }
+            lidos += 20 + pares * 9;
+            parciais[i] = new Parcial(contagem, soma, minimo, maximo, valores, repeticoes);
+        }
+        if (lidos != tamanhoPayload) {
+            throw new StreamCorruptedException("Resposta agregada com tamanho inválido: " + tamanhoPayload);
+        }
+        return parciais;
+    }
+}
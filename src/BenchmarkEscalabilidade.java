@@ -0,0 +1,82 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Mede como a contagem fork/join (ContagemParalela) escala com o número de
+ * threads sobre um único Pedido grande, o caso em que o pool antigo (uma
+ * tarefa por Pedido) deixava todos os núcleos menos um parados.
+ *
+ * Uso: java [-Dgranularidade=<bytes>] [-Dkernel=escalar|swar|vetorial] BenchmarkEscalabilidade [tamanhoDoVetor] [repeticoes]
+ *
+ * Com o kernel SWAR a contagem tende a ficar limitada pela banda de memória
+ * antes de esgotar os núcleos; -Dkernel=escalar mostra a escala da CPU.
+ */
+public class BenchmarkEscalabilidade {
+
+    public static void main(String[] args) {
+        int size = 256 * 1024 * 1024;
+        int repeticoes = 10;
+        if (args.length >= 1) {
+            try { size = Integer.parseInt(args[0]); } catch (NumberFormatException ignored) {}
+        }
+        if (args.length >= 2) {
+            try { repeticoes = Integer.parseInt(args[1]); } catch (NumberFormatException ignored) {}
+        }
+
+        Random rnd = new Random(42);
+        byte[] vetor = new byte[size];
+        GeradorVetor.preencher(vetor, 42);
+        byte procurado = vetor[rnd.nextInt(size)];
+        ByteBuffer pedido = ByteBuffer.wrap(vetor);
+
+        // Referência: o Pedido inteiro numa thread só, como no pool antigo
+        long esperado = KernelContagem.ATIVO.contar(vetor, 0, size, procurado);
+        ForkJoinPool sequencial = new ForkJoinPool(1);
+        long base = medir(sequencial, () -> KernelContagem.ATIVO.contar(vetor, 0, vetor.length, procurado), repeticoes);
+        sequencial.shutdown();
+
+        int procs = Runtime.getRuntime().availableProcessors();
+        System.out.printf("[Escala] Pedido de %,d bytes, kernel %s, fatias de %d KB, %d núcleos%n",
+                size, KernelContagem.ATIVO.nome(), ContagemParalela.GRANULARIDADE / 1024, procs);
+        System.out.printf("[Escala] Uma tarefa por Pedido: %.3f ms  %.2f GB/s%n",
+                base / 1_000_000.0, size / (double) base);
+        System.out.printf("[Escala] %8s %12s %10s %10s %10s%n", "Threads", "Tempo (ms)", "GB/s", "Speedup", "Eficiência");
+
+        for (int threads : contagensDeThreads(procs)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long[] resultado = new long[1];
+            long melhor = medir(pool, () -> resultado[0] = ContagemParalela.contar(pedido, procurado), repeticoes);
+            pool.shutdown();
+            if (resultado[0] != esperado) {
+                System.err.printf("[Escala] ERRO com %d threads: %d != %d%n", threads, resultado[0], esperado);
+                System.exit(1);
+            }
+            double speedup = base / (double) melhor;
+            System.out.printf("[Escala] %8d %12.3f %10.2f %9.2fx %9.0f%%%n", threads, melhor / 1_000_000.0,
+                    size / (double) melhor, speedup, 100.0 * speedup / threads);
+        }
+    }
+
+    /** 1, 2, 4, ... até o número de núcleos (incluído mesmo que não seja potência de 2). */
+    private static List<Integer> contagensDeThreads(int procs) {
+        List<Integer> lista = new ArrayList<>();
+        for (int t = 1; t < procs; t *= 2) lista.add(t);
+        lista.add(procs);
+        return lista;
+    }
+
+    /** Melhor tempo (ns) de "tarefa" rodando dentro de "pool", após aquecimento. */
+    private static long medir(ForkJoinPool pool, Runnable tarefa, int repeticoes) {
+        for (int i = 0; i < 3; i++) pool.submit(tarefa).join();
+        long melhor = Long.MAX_VALUE;
+        for (int i = 0; i < repeticoes; i++) {
+            long t0 = System.nanoTime();
+            pool.submit(tarefa).join();
+            melhor = Math.min(melhor, System.nanoTime() - t0);
+        }
+        return melhor;
+    }
+}
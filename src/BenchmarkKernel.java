@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Verifica os kernels de contagem contra o escalar (tamanhos de borda e
+ * caudas desalinhadas) e mede a vazão de cada um em GB/s nesta máquina.
+ *
+ * Uso: java BenchmarkKernel [tamanhoDoVetor] [repeticoes]
+ */
+public class BenchmarkKernel {
+
+    public static void main(String[] args) {
+        int size = 256 * 1024 * 1024;
+        int repeticoes = 10;
+        if (args.length >= 1) {
+            try { size = Integer.parseInt(args[0]); } catch (NumberFormatException ignored) {}
+        }
+        if (args.length >= 2) {
+            try { repeticoes = Integer.parseInt(args[1]); } catch (NumberFormatException ignored) {}
+        }
+
+        if (!verificar()) {
+            System.exit(1);
+        }
+
+        Random rnd = new Random(42);
+        byte[] vetor = new byte[size];
+        for (int i = 0; i < size; i++) {
+            vetor[i] = (byte)(rnd.nextInt(201) - 100);
+        }
+        byte procurado = vetor[rnd.nextInt(size)];
+
+        System.out.printf("[Kernel] Kernel ativo: %s%n", KernelContagem.ATIVO.nome());
+        for (KernelContagem k : KernelContagem.todos()) {
+            // aquecimento para o JIT compilar o laço
+            for (int i = 0; i < 3; i++) k.contar(vetor, 0, size, procurado);
+
+            long melhor = Long.MAX_VALUE;
+            int c = 0;
+            for (int i = 0; i < repeticoes; i++) {
+                long t0 = System.nanoTime();
+                c = k.contar(vetor, 0, size, procurado);
+                melhor = Math.min(melhor, System.nanoTime() - t0);
+            }
+            System.out.printf("[Kernel] %-8s contagem=%d  melhor=%.3f ms  %.2f GB/s%n",
+                    k.nome(), c, melhor / 1_000_000.0, size / (double) melhor);
+        }
+    }
+
+    /**
+     * Compara cada kernel com o escalar em tamanhos 0..130, deslocamentos 0..15
+     * e todos os valores de byte, sobre byte[] e sobre ByteBuffer direto.
+     */
+    static boolean verificar() {
+        KernelContagem referencia = new KernelEscalar();
+        Random rnd = new Random(7);
+        byte[] dados = new byte[256];
+        ByteBuffer direto = ByteBuffer.allocateDirect(dados.length);
+        boolean ok = true;
+        for (int rodada = 0; rodada < 4; rodada++) {
+            // rodada 0: tudo igual; demais: poucos valores distintos para gerar muitos acertos
+            for (int i = 0; i < dados.length; i++) {
+                dados[i] = rodada == 0 ? (byte) -128 : (byte) (rnd.nextInt(3 * rodada) - 128 + rnd.nextInt(2) * 255);
+            }
+            direto.put(0, dados);
+            for (KernelContagem k : KernelContagem.todos()) {
+                for (int inicio = 0; inicio < 16; inicio++) {
+                    for (int len = 0; len <= 130; len++) {
+                        for (int v = -128; v <= 127; v++) {
+                            int esperado = referencia.contar(dados, inicio, len, (byte) v);
+                            int obtido = k.contar(dados, inicio, len, (byte) v);
+                            // mesma fatia num buffer direto (fora do heap)
+                            int obtidoDireto = k.contar(direto.slice(inicio, len), (byte) v);
+                            if (esperado != obtido || esperado != obtidoDireto) {
+                                System.err.printf("[Kernel] FALHA %s: inicio=%d len=%d procurado=%d esperado=%d obtido=%d direto=%d%n",
+                                        k.nome(), inicio, len, v, esperado, obtido, obtidoDireto);
+                                ok = false;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(ok ? "[Kernel] Verificação dos kernels OK." : "[Kernel] Verificação dos kernels FALHOU.");
+        return ok;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache de shards residentes no receptor, compartilhado por todas as conexões.
+ *
+ * Cada shard é identificado por (datasetId, inicio, fim) do vetor original e
+ * fica fora do heap (VetorSegmentado), então pode passar de 2^31 bytes.
+ * O total guardado respeita um orçamento de memória (-Dcache.mb, padrão
+ * metade do limite de memória direta); ao estourar, os shards menos usados
+ * recentemente (LRU) são descartados.
+ */
+public class CacheShards {
+
+    private static final class Chave {
+        final long datasetId;
+        final long inicio;
+        final long fim;
+
+        Chave(long datasetId, long inicio, long fim) {
+            this.datasetId = datasetId;
+            this.inicio = inicio;
+            this.fim = fim;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Chave c && c.datasetId == datasetId && c.inicio == inicio && c.fim == fim;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(datasetId) * 31 + Long.hashCode(inicio)) * 31 + Long.hashCode(fim);
+        }
+    }
+
+    // accessOrder = true: a iteração começa pelo menos usado recentemente
+    private final LinkedHashMap<Chave, VetorSegmentado> shards = new LinkedHashMap<>(16, 0.75f, true);
+    private final long orcamentoBytes;
+    private long bytesEmUso = 0;
+
+    public CacheShards(long orcamentoBytes) {
+        this.orcamentoBytes = orcamentoBytes;
+    }
+
+    /** Orçamento padrão: -Dcache.mb ou metade do limite de memória direta. */
+    public static long orcamentoPadrao() {
+        long mb = Long.getLong("cache.mb", -1);
+        return mb >= 0 ? mb * 1024 * 1024 : VetorSegmentado.limiteMemoriaDireta() / 2;
+    }
+
+    public long getOrcamentoBytes() {
+        return orcamentoBytes;
+    }
+
+    /** Cabe no orçamento? (Shards maiores que o orçamento inteiro nunca são guardados.) */
+    public boolean cabe(long tamanho) {
+        return tamanho <= orcamentoBytes;
+    }
+
+    /** @return O shard guardado, ou null em caso de cache miss. */
+    public synchronized VetorSegmentado obter(long datasetId, long inicio, long fim) {
+        return shards.get(new Chave(datasetId, inicio, fim));
+    }
+
+    public synchronized void guardar(long datasetId, long inicio, VetorSegmentado dados) {
+        if (!cabe(dados.tamanho())) return;
+        VetorSegmentado anterior = shards.put(new Chave(datasetId, inicio, inicio + dados.tamanho()), dados);
+        if (anterior != null) bytesEmUso -= anterior.tamanho();
+        bytesEmUso += dados.tamanho();
+
+        Iterator<Map.Entry<Chave, VetorSegmentado>> it = shards.entrySet().iterator();
+        while (bytesEmUso > orcamentoBytes && it.hasNext()) {
+            Map.Entry<Chave, VetorSegmentado> maisAntigo = it.next();
+            bytesEmUso -= maisAntigo.getValue().tamanho();
+            it.remove();
+            System.out.printf("[R] Cache: shard [%d, %d) do dataset %d descartado (LRU)%n",
+                    maisAntigo.getKey().inicio, maisAntigo.getKey().fim, maisAntigo.getKey().datasetId);
+        }
+    }
+
+    public synchronized long getBytesEmUso() {
+        return bytesEmUso;
+    }
+}
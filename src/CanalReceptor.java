@@ -0,0 +1,140 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Transporte entre o Distribuidor e um receptor. O Distribuidor só fala com
+ * esta interface; quem a implementa decide como os dados chegam a quem conta:
+ *
+ *  - ConexaoReceptor: um ReceptorServer remoto, pelo socket (binário ou serialização Java);
+ *  - ReceptorLocal: um receptor no mesmo processo, que conta direto nas
+ *    fatias do vetor, sem cópia e sem rede.
+ *
+ * O ciclo de um bloco é o mesmo nos dois: iniciarLote (ou as variantes de
+ * histograma e agregação), enviar para cada intervalo, fecharLote, e depois
+ * a resposta sai de receberResposta(), em qualquer ordem.
+ */
+public interface CanalReceptor extends Closeable {
+
+    /**
+     * Resposta de um lote, identificada pelo id da requisição.
+     * Em lotes de histograma "histograma" traz as 256 contagens; senão é null.
+     * Em lotes de consultas agregadas "agregados" traz um parcial por consulta; senão é null.
+     * "cacheMiss" indica que uma consulta não achou o shard e os dados precisam ser enviados.
+     */
+    final class RespostaRecebida {
+        public final int requestId;
+        public final long contagem;
+        public final long[] histograma;
+        public final Agregacao.Parcial[] agregados;
+        public final boolean cacheMiss;
+        int tamanhoQuadro; // cabeçalho + payload, para a contagem de bytes do canal
+
+        private RespostaRecebida(int requestId, long contagem, long[] histograma, Agregacao.Parcial[] agregados,
+                                 boolean cacheMiss) {
+            this.requestId = requestId;
+            this.contagem = contagem;
+            this.histograma = histograma;
+            this.agregados = agregados;
+            this.cacheMiss = cacheMiss;
+        }
+
+        RespostaRecebida(int requestId, long contagem) {
+            this(requestId, contagem, null, null, false);
+        }
+
+        RespostaRecebida(int requestId, long[] histograma) {
+            this(requestId, 0, histograma, null, false);
+        }
+
+        RespostaRecebida(int requestId, Agregacao.Parcial[] agregados) {
+            this(requestId, 0, null, agregados, false);
+        }
+
+        static RespostaRecebida cacheMiss(int requestId) {
+            return new RespostaRecebida(requestId, 0, null, null, true);
+        }
+    }
+
+    /**
+     * Abre o transporte para um destino da lista de receptores:
+     * "local-N" (ver ReceptorLocal.expandir) ou "host:port".
+     */
+    static CanalReceptor abrir(String destino) throws IOException {
+        if (ReceptorLocal.ehLocal(destino)) {
+            return ReceptorLocal.abrir(destino);
+        }
+        String[] parts = destino.split(":");
+        int port = (parts.length > 1) ? Integer.parseInt(parts[1]) : 12345;
+        return ConexaoReceptor.abrir(parts[0], port);
+    }
+
+    /** Nome do transporte para os logs ("binário", "serialização", "em processo"). */
+    String protocolo();
+
+    /** Bytes já enviados por este canal (0 quando nada passa por socket). */
+    long getBytesEnviados();
+
+    /** Bytes já recebidos por este canal. */
+    long getBytesRecebidos();
+
+    /** Tempo gasto copiando dados do vetor antes de enviá-los. */
+    long getNanosCopia();
+
+    /** Orçamento de memória informado pelo receptor, ou -1 se ele não informa. */
+    long getOrcamentoReceptor();
+
+    boolean suportaCache();
+
+    boolean suportaHistograma();
+
+    boolean suportaAgregacao();
+
+    boolean suportaIngestao();
+
+    /** Abre um lote. Cada lote termina com uma Resposta única do receptor. */
+    void iniciarLote(VetorSegmentado vetor, byte procurado);
+
+    /** Abre um lote de histograma. @throws IOException se o receptor não suporta histograma. */
+    void iniciarLoteHistograma(VetorSegmentado vetor) throws IOException;
+
+    /** Abre um lote de consultas agregadas. @throws IOException se o receptor não suporta agregação. */
+    void iniciarLoteAgregacao(VetorSegmentado vetor, Agregacao.Consulta[] consultas) throws IOException;
+
+    /** Pede que o shard "inter" do lote atual fique guardado no receptor. */
+    void marcarParaCache(long datasetId, Distribuidor.Intervalo inter) throws IOException;
+
+    /** Consulta um shard em cache; devolve o id da requisição. */
+    int enviarConsulta(long datasetId, Distribuidor.Intervalo inter, byte procurado, boolean histograma)
+            throws IOException;
+
+    /** Consulta agregada sobre um shard em cache; devolve o id da requisição. */
+    int enviarConsultaAgregada(long datasetId, Distribuidor.Intervalo inter, Agregacao.Consulta[] consultas)
+            throws IOException;
+
+    /**
+     * Escreve dados[off, off + len) na posição "posicao" do dataset vivo
+     * "datasetId" deste receptor (ver Ingestao). Não tem resposta.
+     */
+    void ingerir(long datasetId, long posicao, byte[] dados, int off, int len) throws IOException;
+
+    /**
+     * Pede a contagem de "procurado" (ou o histograma) mantida para o dataset
+     * vivo; a resposta vem em receberResposta(). Devolve o id da requisição.
+     */
+    int consultarMantida(long datasetId, byte procurado, boolean histograma) throws IOException;
+
+    /** Entrega um intervalo do lote atual. */
+    void enviar(Distribuidor.Intervalo inter) throws IOException;
+
+    /** Fecha o lote atual sem esperar a Resposta; devolve o id da requisição. */
+    int fecharLote() throws IOException;
+
+    /** Espera a próxima Resposta deste canal (pode vir fora de ordem). */
+    RespostaRecebida receberResposta() throws IOException, ClassNotFoundException;
+
+    /** Fim educado da conversa com o receptor. */
+    void encerrar() throws IOException;
+
+    /** Derruba o receptor para esta rodada (ex.: prazo estourado); quem espera resposta recebe erro. */
+    void derrubar(String motivo);
+}
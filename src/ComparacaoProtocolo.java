@@ -0,0 +1,66 @@
+import java.net.*;
+import java.util.Random;
+
+/**
+ * Compara a vazão do protocolo binário com a serialização Java antiga,
+ * usando um ReceptorServer no mesmo processo via loopback.
+ *
+ * Uso: java ComparacaoProtocolo [tamanhoDoVetor] [repeticoes]
+ */
+public class ComparacaoProtocolo {
+
+    private static final int BLOCKS_PER_SERVER = 8;
+
+    public static void main(String[] args) throws Exception {
+        int size = 100_000_000;
+        int repeticoes = 5;
+        if (args.length >= 1) {
+            try { size = Integer.parseInt(args[0]); } catch (NumberFormatException ignored) {}
+        }
+        if (args.length >= 2) {
+            try { repeticoes = Integer.parseInt(args[1]); } catch (NumberFormatException ignored) {}
+        }
+
+        ServerSocket serverSocket = ReceptorServer.abrirServidor(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread servidor = new Thread(() -> {
+            try {
+                ReceptorServer.servir(serverSocket);
+            } catch (Exception e) {
+                System.err.println("[Comparação] Receptor encerrado: " + e.getMessage());
+            }
+        });
+        servidor.setDaemon(true);
+        servidor.start();
+        String[] receptors = { "127.0.0.1:" + serverSocket.getLocalPort() };
+
+        Random rnd = new Random(42);
+        byte[] grandeVetor = new byte[size];
+        for (int i = 0; i < size; i++) {
+            grandeVetor[i] = (byte)(rnd.nextInt(201) - 100);
+        }
+        byte procurado = grandeVetor[rnd.nextInt(size)];
+
+        double msLegado = medir("legado", grandeVetor, procurado, receptors, repeticoes);
+        double msBinario = medir("binario", grandeVetor, procurado, receptors, repeticoes);
+
+        double mb = size / (1024.0 * 1024.0);
+        System.out.printf("%n[Comparação] Vetor de %,d elementos (%.2f MB), melhor de %d rodadas%n", size, mb, repeticoes);
+        System.out.printf("[Comparação] Serialização Java : %10.3f ms  (%8.2f MB/s)%n", msLegado, mb / (msLegado / 1000.0));
+        System.out.printf("[Comparação] Protocolo binário : %10.3f ms  (%8.2f MB/s)%n", msBinario, mb / (msBinario / 1000.0));
+        System.out.printf("[Comparação] Ganho: %.2fx%n", msLegado / msBinario);
+        serverSocket.close();
+    }
+
+    private static double medir(String protocolo, byte[] vetor, byte procurado, String[] receptors, int repeticoes) {
+        System.setProperty("protocolo", protocolo);
+        double melhor = Double.MAX_VALUE;
+        for (int i = 0; i < repeticoes; i++) {
+            long t0 = System.nanoTime();
+            Distribuidor.executarContagemDistribuida(vetor, procurado, receptors, BLOCKS_PER_SERVER);
+            long t1 = System.nanoTime();
+            melhor = Math.min(melhor, (t1 - t0) / 1_000_000.0);
+        }
+        return melhor;
+    }
+}
@@ -0,0 +1,710 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conexão do Distribuidor com um receptor remoto (o transporte de rede de CanalReceptor).
+ *
+ * Ao abrir, tenta o handshake do Protocolo binário. Se o receptor não
+ * responder com o MAGIC (receptor antigo, que só entende Java serialization),
+ * a conexão é refeita usando ObjectOutputStream/ObjectInputStream como antes.
+ * A propriedade de sistema "protocolo=legado" força o caminho antigo.
+ *
+ * No binário cada ConexaoReceptor é um canal leve sobre uma Sessao
+ * persistente por receptor, compartilhada por todas as threads do processo:
+ * o TCP e o handshake são pagos uma vez, os quadros de vários canais se
+ * intercalam no mesmo socket e cada resposta volta ao canal dono do id da
+ * requisição, em qualquer ordem. Com -Dconexao.pool=false cada canal abre
+ * a sua própria sessão, como antes.
+ *
+ * O socket é aberto por um SocketChannel: os chunks de dados saem do vetor
+ * como fatias (visões sem cópia), e as de segmentos fora do heap vão para o
+ * canal como estão, com o cabeçalho num buffer direto reaproveitado. O envio
+ * de um lote não aloca nem copia nada por chunk além da visão.
+ */
+public class ConexaoReceptor implements CanalReceptor {
+
+    private static final int TIMEOUT_HANDSHAKE_MS = 5000;
+    // Um receptor inalcançável não pode segurar a rodada pelos minutos do timeout do SO
+    private static final int TIMEOUT_CONEXAO_MS = Integer.getInteger("conexao.timeout.ms", 5000);
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+    private static final int TAMANHO_CHUNK = Integer.getInteger("stream.chunk", 1024 * 1024);
+    // Maior escrita no canal de uma vez: um chunk inteiro numa chamada só enche o
+    // buffer do socket e a thread fica mais tempo parada do que escrevendo
+    private static final int PASSO_ESCRITA = Integer.getInteger("stream.passo", 128 * 1024);
+    private static final boolean POOL = !"false".equalsIgnoreCase(System.getProperty("conexao.pool"));
+
+    // "host:port" -> sessão binária aberta (só com POOL)
+    private static final Map<String, Sessao> SESSOES = new ConcurrentHashMap<>();
+    // Um lock por receptor para o handshake: um host morto não segura a abertura dos outros
+    private static final Map<String, ReentrantLock> ABERTURAS = new ConcurrentHashMap<>();
+
+    static {
+        Metricas.medidor("distribuidor_sessoes_abertas", SESSOES::size);
+    }
+
+    private final String host;
+    private final int port;
+    private final boolean binario;
+
+    // Caminho binário
+    private Sessao sessao;
+    private final BlockingQueue<RespostaRecebida> respostas = new LinkedBlockingQueue<>();
+    private final Set<Integer> idsPendentes = ConcurrentHashMap.newKeySet(); // o watchdog solta o canal de outra thread
+
+    // Estado do lote em andamento
+    private VetorSegmentado vetorDoLote;
+    private byte procuradoDoLote;
+    private boolean loteHistograma;
+    private int requestIdDoLote;
+    private List<Pedido> pedidosPendentes;
+    private int proximoRequestIdLegado = 1;
+    private final Deque<Integer> idsLegadoEmVoo = new ArrayDeque<>();
+
+    // Instrumentação (acumulada desde a abertura; o Distribuidor mede por diferença).
+    // No binário conta só os quadros deste canal, não os de quem divide a sessão.
+    private long bytesEnviados;
+    private long bytesRecebidos;
+    private long nanosCopia; // cópia para os Pedidos (só no legado; o binário envia as fatias)
+
+    // Caminho legado
+    private Socket socketLegado;
+    private ObjectOutputStream objOut;
+    private ObjectInputStream objIn;
+    private SaidaContada saidaContada;
+    private EntradaContada entradaContada;
+
+    // Marcadores na fila de respostas de um canal: a sessão caiu / o canal foi fechado
+    private static final RespostaRecebida SESSAO_CAIU = new RespostaRecebida(-1, 0);
+    private static final RespostaRecebida CANAL_FECHADO = new RespostaRecebida(-1, 0);
+
+    /**
+     * Um socket binário com um receptor. A escrita de cada quadro é
+     * serializada por um lock; uma thread leitora entrega cada resposta ao
+     * canal que registrou o id da requisição.
+     */
+    private static final class Sessao {
+        final String chave;
+        final Socket socket;
+        final SocketChannel canal;
+        final DataOutputStream dataOut;
+        final DataInputStream dataIn;
+        final byte versao;
+        final long orcamento;
+        final ReentrantLock escrita = new ReentrantLock();
+        final AtomicInteger proximoRequestId = new AtomicInteger(1);
+        final Map<Integer, ConexaoReceptor> destinos = new ConcurrentHashMap<>();
+        volatile String falha; // != null: sessão morta
+        // Quadro de dados (cabeçalho + fatia) para a escrita em bloco; só mexido sob o lock
+        private final ByteBuffer cabecalho = ByteBuffer.allocateDirect(Protocolo.TAMANHO_CABECALHO);
+        private final ByteBuffer[] quadro = { cabecalho, null };
+
+        Sessao(String chave, Socket socket, DataOutputStream dataOut, DataInputStream dataIn,
+               byte versao, long orcamento) {
+            this.chave = chave;
+            this.socket = socket;
+            this.canal = socket.getChannel();
+            this.dataOut = dataOut;
+            this.dataIn = dataIn;
+            this.versao = versao;
+            this.orcamento = orcamento;
+        }
+
+        interface Escrita {
+            void executar(DataOutputStream out) throws IOException;
+        }
+
+        void iniciarLeitor() {
+            Thread.ofVirtual().name("sessao-" + chave).start(this::ler);
+        }
+
+        /** Id novo, registrado para o canal: a resposta com esse id vai para ele. */
+        int registrar(ConexaoReceptor canal) {
+            int id = proximoRequestId.getAndIncrement();
+            destinos.put(id, canal);
+            return id;
+        }
+
+        /** Escreve quadros inteiros sem que outro canal se intercale no meio deles. */
+        void escrever(Escrita escrita) throws IOException {
+            this.escrita.lock();
+            try {
+                if (falha != null) throw new IOException("Sessão com " + chave + " caiu: " + falha);
+                escrita.executar(dataOut);
+            } catch (IOException e) {
+                invalidar(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                throw e;
+            } finally {
+                this.escrita.unlock();
+            }
+        }
+
+        /**
+         * Escreve um quadro de dados com o payload tirado direto de "dados" (uma
+         * fatia do vetor). Uma fatia fora do heap sai com o cabeçalho em escritas
+         * em bloco pelo canal (de até PASSO_ESCRITA bytes), do vetor para o
+         * socket sem cópia na JVM.
+         * Uma fatia do heap vai pelo stream: o canal a copiaria inteira para um
+         * buffer direto temporário antes, e o stream a escreve em pedaços.
+         */
+        void escreverChunk(byte opcode, int requestId, byte procurado, ByteBuffer dados) throws IOException {
+            this.escrita.lock();
+            try {
+                if (falha != null) throw new IOException("Sessão com " + chave + " caiu: " + falha);
+                if (dados.hasArray()) {
+                    Protocolo.escreverCabecalho(dataOut, opcode, requestId, procurado, dados.remaining());
+                    dataOut.write(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining());
+                    return;
+                }
+                dataOut.flush(); // quadros de controle já no buffer saem antes
+                cabecalho.clear();
+                Protocolo.escreverCabecalho(cabecalho, opcode, requestId, procurado, dados.remaining());
+                cabecalho.flip();
+                quadro[1] = dados;
+                int limite = dados.limit();
+                try {
+                    do {
+                        dados.limit(Math.min(limite, dados.position() + PASSO_ESCRITA));
+                        canal.write(quadro);
+                    } while (cabecalho.hasRemaining() || dados.position() < limite);
+                } finally {
+                    dados.limit(limite);
+                    quadro[1] = null;
+                }
+            } catch (IOException e) {
+                invalidar(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                throw e;
+            } finally {
+                this.escrita.unlock();
+            }
+        }
+
+        private void ler() {
+            try {
+                while (true) {
+                    Protocolo.Quadro q = Protocolo.lerCabecalho(dataIn);
+                    RespostaRecebida r;
+                    if (q.opcode == Protocolo.OP_CACHE_MISS) {
+                        Protocolo.pularPayload(dataIn, q);
+                        r = RespostaRecebida.cacheMiss(q.requestId);
+                    } else if (q.opcode == Protocolo.OP_RESPOSTA_AGREGADOS) {
+                        r = new RespostaRecebida(q.requestId, Protocolo.lerRespostaAgregados(dataIn, q));
+                    } else if (q.opcode == Protocolo.OP_RESPOSTA_HISTOGRAMA) {
+                        r = new RespostaRecebida(q.requestId, Protocolo.lerRespostaHistograma(dataIn, q).getContagens());
+                    } else {
+                        r = new RespostaRecebida(q.requestId, Protocolo.lerResposta(dataIn, q).getContagem());
+                    }
+                    r.tamanhoQuadro = Protocolo.TAMANHO_CABECALHO + q.tamanhoPayload;
+                    ConexaoReceptor canal = destinos.remove(q.requestId);
+                    if (canal == null) {
+                        // o canal já foi solto (ex.: resposta atrasada de uma rodada concluída)
+                        Metricas.contador(Metricas.porReceptor("distribuidor_respostas_orfas", chave)).increment();
+                        continue;
+                    }
+                    canal.respostas.add(r);
+                }
+            } catch (IOException e) {
+                invalidar(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            }
+        }
+
+        /** Marca a sessão como morta, tira do pool e acorda os canais que esperam resposta. */
+        void invalidar(String motivo) {
+            if (falha != null) return;
+            falha = motivo;
+            SESSOES.remove(chave, this);
+            try { socket.close(); } catch (IOException ignored) {}
+            for (ConexaoReceptor canal : destinos.values()) {
+                canal.respostas.add(SESSAO_CAIU);
+            }
+        }
+
+        /** Encerramento educado: o receptor fecha o handler do lado dele. */
+        void encerrar() {
+            try {
+                escrever(out -> {
+                    Protocolo.escreverEncerramento(out);
+                    out.flush();
+                });
+            } catch (IOException ignored) {
+                // já caiu; não há a quem avisar
+            }
+            invalidar("encerrada");
+        }
+    }
+
+    private ConexaoReceptor(String host, int port, boolean binario) {
+        this.host = host;
+        this.port = port;
+        this.binario = binario;
+    }
+
+    public static ConexaoReceptor abrir(String host, int port) throws IOException {
+        if (!"legado".equalsIgnoreCase(System.getProperty("protocolo"))) {
+            Sessao s = POOL ? sessaoDoPool(host, port) : tentarBinario(host, port);
+            if (s != null) {
+                ConexaoReceptor c = new ConexaoReceptor(host, port, true);
+                c.sessao = s;
+                return c;
+            }
+            System.out.printf("[D] %s:%d não aceitou o protocolo binário. Usando serialização Java.%n", host, port);
+        }
+        return abrirLegado(host, port);
+    }
+
+    /**
+     * A sessão aberta com o receptor, ou uma nova se ainda não há (ou se a
+     * anterior caiu).
+     * @return null se o receptor não fala o protocolo binário.
+     */
+    private static Sessao sessaoDoPool(String host, int port) throws IOException {
+        String chave = host + ":" + port;
+        Sessao s = SESSOES.get(chave);
+        if (s != null && s.falha == null) return s;
+        ReentrantLock abertura = ABERTURAS.computeIfAbsent(chave, k -> new ReentrantLock());
+        abertura.lock();
+        try {
+            s = SESSOES.get(chave);
+            if (s != null && s.falha == null) return s;
+            s = tentarBinario(host, port);
+            if (s != null) {
+                SESSOES.put(chave, s);
+                Metricas.contador(Metricas.porReceptor("distribuidor_sessoes_criadas", chave)).increment();
+            }
+            return s;
+        } finally {
+            abertura.unlock();
+        }
+    }
+
+    /** Encerra todas as sessões do pool (fim do processo). */
+    public static void fecharSessoes() {
+        for (Sessao s : new ArrayList<>(SESSOES.values())) {
+            s.encerrar();
+        }
+    }
+
+    /** Socket com canal (SocketChannel em modo bloqueante), para a Sessao escrever as fatias direto. */
+    private static Socket conectar(String host, int port) throws IOException {
+        SocketChannel canal = SocketChannel.open();
+        Socket socket = canal.socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_CONEXAO_MS);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static Sessao tentarBinario(String host, int port) throws IOException {
+        Socket socket = conectar(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(TIMEOUT_HANDSHAKE_MS);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), TAMANHO_BUFFER));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), TAMANHO_BUFFER));
+
+            Protocolo.escreverHandshake(out, Protocolo.VERSAO);
+            byte versaoAceita = Protocolo.lerHandshake(in);
+            if (versaoAceita < Protocolo.VERSAO_MINIMA || versaoAceita > Protocolo.VERSAO) {
+                throw new StreamCorruptedException("Versão não suportada: " + versaoAceita);
+            }
+            long orcamento = versaoAceita >= Protocolo.VERSAO_ORCAMENTO ? Protocolo.lerOrcamento(in) : -1;
+            socket.setSoTimeout(0);
+
+            Sessao s = new Sessao(host + ":" + port, socket, out, in, versaoAceita, orcamento);
+            s.iniciarLeitor();
+            return s;
+        } catch (EOFException | StreamCorruptedException | SocketTimeoutException | SocketException e) {
+            // Receptor antigo fecha a conexão ao ver um cabeçalho que não é 0xACED
+            try { socket.close(); } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    private static ConexaoReceptor abrirLegado(String host, int port) throws IOException {
+        Socket socket = conectar(host, port);
+        ConexaoReceptor c = new ConexaoReceptor(host, port, false);
+        c.socketLegado = socket;
+        c.saidaContada = new SaidaContada(socket.getOutputStream());
+        c.entradaContada = new EntradaContada(socket.getInputStream());
+        c.objOut = new ObjectOutputStream(c.saidaContada);
+        // o ObjectInputStream lê o cabeçalho do stream já no construtor: um receptor mudo não pode travar aqui
+        socket.setSoTimeout(TIMEOUT_HANDSHAKE_MS);
+        try {
+            c.objIn = new ObjectInputStream(c.entradaContada);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        socket.setSoTimeout(0);
+        return c;
+    }
+
+    /** Bytes já enviados por este canal (cabeçalhos e serialização incluídos). */
+    public long getBytesEnviados() {
+        return binario ? bytesEnviados : saidaContada.total;
+    }
+
+    /** Bytes já recebidos por este canal. */
+    public long getBytesRecebidos() {
+        return binario ? bytesRecebidos : entradaContada.total;
+    }
+
+    /** Tempo gasto copiando dados do vetor antes de enviá-los (0 no binário, que envia as fatias). */
+    public long getNanosCopia() {
+        return nanosCopia;
+    }
+
+    @Override
+    public String protocolo() {
+        return binario ? "binário" : "serialização";
+    }
+
+    /** Orçamento de memória informado pelo receptor no handshake, ou -1 se ele não informa. */
+    public long getOrcamentoReceptor() {
+        return binario ? sessao.orcamento : -1;
+    }
+
+    /** Cache de shards no receptor precisa do protocolo binário v3 ou superior. */
+    public boolean suportaCache() {
+        return binario && sessao.versao >= Protocolo.VERSAO_CACHE;
+    }
+
+    /** Pedidos de histograma precisam do protocolo binário v2 ou superior. */
+    public boolean suportaHistograma() {
+        return binario && sessao.versao >= Protocolo.VERSAO_HISTOGRAMA;
+    }
+
+    /** Lotes de consultas agregadas precisam do protocolo binário v6 ou superior. */
+    public boolean suportaAgregacao() {
+        return binario && sessao.versao >= Protocolo.VERSAO_AGREGACAO;
+    }
+
+    /** Ingestão incremental precisa do protocolo binário v7 ou superior. */
+    public boolean suportaIngestao() {
+        return binario && sessao.versao >= Protocolo.VERSAO_INGESTAO;
+    }
+
+    /** No binário o id vem da sessão, único entre todos os canais dela. */
+    private int novoRequestId() {
+        if (!binario) return proximoRequestIdLegado++;
+        int id = sessao.registrar(this);
+        idsPendentes.add(id);
+        return id;
+    }
+
+    /** Abre um lote. Cada lote termina com uma Resposta única do receptor. */
+    public void iniciarLote(VetorSegmentado vetor, byte procurado) {
+        this.vetorDoLote = vetor;
+        this.procuradoDoLote = procurado;
+        this.loteHistograma = false;
+        this.requestIdDoLote = novoRequestId();
+        this.pedidosPendentes = binario ? null : new ArrayList<>();
+    }
+
+    /**
+     * Abre um lote de histograma: a Resposta traz as 256 contagens de uma vez.
+     * @throws IOException se o receptor não suporta histograma.
+     */
+    public void iniciarLoteHistograma(VetorSegmentado vetor) throws IOException {
+        if (!suportaHistograma()) {
+            throw new IOException(String.format("%s:%d não suporta pedido de histograma", host, port));
+        }
+        this.vetorDoLote = vetor;
+        this.loteHistograma = true;
+        this.requestIdDoLote = novoRequestId();
+    }
+
+    /**
+     * Abre um lote de consultas agregadas: o receptor faz uma passada sobre os
+     * dados do lote e responde com um Agregacao.Parcial por consulta.
+     * @throws IOException se o receptor não suporta agregação.
+     */
+    public void iniciarLoteAgregacao(VetorSegmentado vetor, Agregacao.Consulta[] consultas) throws IOException {
+        if (!suportaAgregacao()) {
+            throw new IOException(String.format("%s:%d não suporta consultas agregadas", host, port));
+        }
+        this.vetorDoLote = vetor;
+        this.loteHistograma = true;
+        int requestId = novoRequestId();
+        this.requestIdDoLote = requestId;
+        sessao.escrever(out -> Protocolo.escreverAgregar(out, requestId, consultas));
+        bytesEnviados += Protocolo.TAMANHO_CABECALHO + Agregacao.tamanhoConsultas(consultas);
+    }
+
+    /**
+     * Pede ao receptor que guarde os dados do lote atual no cache como o shard
+     * "inter" do dataset. Deve ser chamado antes de enviar(inter).
+     */
+    public void marcarParaCache(long datasetId, Distribuidor.Intervalo inter) throws IOException {
+        if (!suportaCache()) return;
+        int requestId = requestIdDoLote;
+        sessao.escrever(out -> Protocolo.escreverGuardar(out, requestId, datasetId, inter.inicio, inter.fim));
+        bytesEnviados += Protocolo.TAMANHO_CABECALHO + 24;
+    }
+
+    /**
+     * Consulta um shard que já deveria estar no cache do receptor: só a referência
+     * vai pela rede. Se o receptor não tiver o shard, a resposta vem com cacheMiss.
+     * @return O id da requisição.
+     */
+    public int enviarConsulta(long datasetId, Distribuidor.Intervalo inter, byte procurado, boolean histograma)
+            throws IOException {
+        if (!suportaCache()) {
+            throw new IOException(String.format("%s:%d não suporta cache de shards", host, port));
+        }
+        int requestId = novoRequestId();
+        byte tipo = histograma ? Protocolo.TIPO_HISTOGRAMA : Protocolo.TIPO_CONTAGEM;
+        sessao.escrever(out -> {
+            Protocolo.escreverConsulta(out, requestId, procurado, tipo, datasetId, inter.inicio, inter.fim);
+            out.flush();
+        });
+        bytesEnviados += Protocolo.TAMANHO_CABECALHO + 25;
+        return requestId;
+    }
+
+    /** Igual a enviarConsulta, com um lote de consultas agregadas sobre o shard em cache. */
+    public int enviarConsultaAgregada(long datasetId, Distribuidor.Intervalo inter, Agregacao.Consulta[] consultas)
+            throws IOException {
+        if (!suportaAgregacao()) {
+            throw new IOException(String.format("%s:%d não suporta consultas agregadas", host, port));
+        }
+        int requestId = novoRequestId();
+        sessao.escrever(out -> {
+            Protocolo.escreverAgregar(out, requestId, consultas);
+            Protocolo.escreverConsulta(out, requestId, (byte) 0, Protocolo.TIPO_AGREGADOS,
+                    datasetId, inter.inicio, inter.fim);
+            out.flush();
+        });
+        bytesEnviados += 2 * Protocolo.TAMANHO_CABECALHO + Agregacao.tamanhoConsultas(consultas) + 25;
+        return requestId;
+    }
+
+    /**
+     * Escreve no dataset vivo do receptor. Sai com flush: a ingestão não
+     * espera resposta, então nada deve ficar parado no buffer da sessão.
+     */
+    public void ingerir(long datasetId, long posicao, byte[] dados, int off, int len) throws IOException {
+        if (!suportaIngestao()) {
+            throw new IOException(String.format("%s:%d não suporta ingestão incremental", host, port));
+        }
+        sessao.escrever(out -> {
+            Protocolo.escreverIngerir(out, datasetId, posicao, dados, off, len);
+            out.flush();
+        });
+        bytesEnviados += Protocolo.TAMANHO_CABECALHO + 16 + len;
+    }
+
+    public int consultarMantida(long datasetId, byte procurado, boolean histograma) throws IOException {
+        if (!suportaIngestao()) {
+            throw new IOException(String.format("%s:%d não suporta ingestão incremental", host, port));
+        }
+        int requestId = novoRequestId();
+        byte tipo = histograma ? Protocolo.TIPO_HISTOGRAMA : Protocolo.TIPO_CONTAGEM;
+        sessao.escrever(out -> {
+            Protocolo.escreverContagemMantida(out, requestId, procurado, tipo, datasetId);
+            out.flush();
+        });
+        bytesEnviados += Protocolo.TAMANHO_CABECALHO + 9;
+        return requestId;
+    }
+
+    /**
+     * Envia um intervalo do lote atual.
+     * No protocolo binário os bytes saem na hora, direto do vetor, em chunks
+     * de tamanho fixo (-Dstream.chunk), e o receptor já começa a contar.
+     * Cada chunk é uma fatia do vetor escrita sob o lock da sessão (ver
+     * Sessao.escreverChunk), então os canais que dividem o socket se
+     * alternam chunk a chunk.
+     * No legado o intervalo é copiado para Pedidos (um por segmento, já que
+     * um byte[] não passa de 2^31) e só sai no fecharLote.
+     */
+    public void enviar(Distribuidor.Intervalo inter) throws IOException {
+        if (binario) {
+            byte opcode = loteHistograma ? Protocolo.OP_HISTOGRAMA : Protocolo.OP_PEDIDO;
+            byte procurado = loteHistograma ? 0 : procuradoDoLote;
+            long i = inter.inicio;
+            while (i < inter.fim) {
+                // um chunk nunca atravessa a fronteira de um segmento
+                int len = (int) Math.min(Math.min(TAMANHO_CHUNK, inter.fim - i), vetorDoLote.contiguosAPartirDe(i));
+                sessao.escreverChunk(opcode, requestIdDoLote, procurado, vetorDoLote.fatia(i, len));
+                bytesEnviados += Protocolo.TAMANHO_CABECALHO + len;
+                i += len;
+            }
+            return;
+        }
+
+        for (long i = inter.inicio; i < inter.fim; ) {
+            int len = (int) Math.min(VetorSegmentado.TAMANHO_SEGMENTO, inter.fim - i);
+            long t0 = System.nanoTime();
+            byte[] sub = new byte[len];
+            vetorDoLote.copiarPara(i, sub, 0, len);
+            nanosCopia += System.nanoTime() - t0;
+            pedidosPendentes.add(new Pedido(sub, procuradoDoLote));
+            i += len;
+        }
+    }
+
+    /**
+     * Fecha o lote atual (marcador de fim de stream no binário, envio da List
+     * no legado) sem esperar a Resposta, para permitir vários lotes em voo.
+     * @return O id da requisição, devolvido depois em receberResposta().
+     */
+    public int fecharLote() throws IOException {
+        int requestId = requestIdDoLote;
+        if (binario) {
+            sessao.escrever(out -> {
+                Protocolo.escreverFimLote(out, requestId);
+                out.flush();
+            });
+            bytesEnviados += Protocolo.TAMANHO_CABECALHO;
+            return requestId;
+        }
+
+        List<Pedido> batchDePedidos = pedidosPendentes;
+        pedidosPendentes = null;
+        objOut.writeObject(batchDePedidos); // Envia a LISTA inteira
+        objOut.flush();
+        objOut.reset();
+        idsLegadoEmVoo.add(requestId); // o receptor antigo responde na ordem de chegada
+        return requestId;
+    }
+
+    /**
+     * Espera a próxima Resposta deste canal. No binário ela pode chegar fora
+     * de ordem, por isso vem junto com o id da requisição.
+     */
+    public RespostaRecebida receberResposta() throws IOException, ClassNotFoundException {
+        if (binario) {
+            RespostaRecebida r;
+            try {
+                r = respostas.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrompido esperando resposta de " + host + ":" + port);
+            }
+            if (r == SESSAO_CAIU) {
+                respostas.add(SESSAO_CAIU); // uma nova chamada também vê a queda
+                throw new IOException(String.format("Sessão com %s:%d caiu: %s", host, port, sessao.falha));
+            }
+            if (r == CANAL_FECHADO) {
+                throw new SocketException("Canal fechado");
+            }
+            idsPendentes.remove(r.requestId);
+            bytesRecebidos += r.tamanhoQuadro;
+            return r;
+        }
+
+        Object o = objIn.readObject(); // Espera UMA resposta
+        if (o instanceof Resposta r) {
+            return new RespostaRecebida(idsLegadoEmVoo.remove(), r.getContagem());
+        }
+        throw new StreamCorruptedException(String.format("Objeto inesperado na resposta de %s:%d: %s",
+                host, port, o.getClass().getName()));
+    }
+
+    /**
+     * Envia o ComunicadoEncerramento (ou o quadro equivalente). A sessão do
+     * pool continua aberta para os próximos canais; ver fecharSessoes().
+     */
+    public void encerrar() throws IOException {
+        if (binario) {
+            if (!POOL) sessao.encerrar();
+        } else {
+            objOut.writeObject(new ComunicadoEncerramento());
+            objOut.flush();
+            objOut.reset();
+        }
+    }
+
+    /**
+     * Derruba a conexão com o receptor (ex.: prazo estourado). No binário a
+     * sessão inteira cai e todos os canais sobre ela recebem erro.
+     */
+    public void derrubar(String motivo) {
+        if (binario) {
+            sessao.invalidar(motivo);
+        } else {
+            try { socketLegado.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Solta o canal: respostas ainda pendentes dele passam a ser descartadas
+     * e uma thread parada em receberResposta() acorda com erro.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!binario) {
+            socketLegado.close();
+            return;
+        }
+        for (Integer id : idsPendentes) {
+            sessao.destinos.remove(id, this);
+        }
+        respostas.add(CANAL_FECHADO);
+        if (!POOL) sessao.invalidar("canal fechado");
+    }
+
+    /** Conta os bytes que passam para o socket. Usada só pela thread da conexão. */
+    private static final class SaidaContada extends FilterOutputStream {
+        long total;
+
+        SaidaContada(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            total++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len); // o FilterOutputStream escreveria byte a byte
+            total += len;
+        }
+    }
+
+    /** Conta os bytes lidos do socket. Usada só pela thread da conexão. */
+    private static final class EntradaContada extends FilterInputStream {
+        long total;
+
+        EntradaContada(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) total++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) total += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long pulados = in.skip(n);
+            total += pulados;
+            return pulados;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Contagem e histograma de uma fatia grande divididos em fork/join: a fatia
+ * é partida ao meio até caber em GRANULARIDADE bytes (da ordem do cache L2),
+ * as metades são roubadas pelas threads livres do pool e os resultados
+ * são somados na volta. Assim um único Pedido grande usa todos os núcleos,
+ * seja qual for a divisão em blocos que o Distribuidor escolheu.
+ *
+ * Chamado de dentro de um ForkJoinPool as subtarefas ficam nesse pool;
+ * fora dele, no ForkJoinPool.commonPool().
+ */
+public final class ContagemParalela {
+
+    // Tamanho das folhas; -Dgranularidade=<bytes> para ajustar ao L2 da máquina
+    public static final int GRANULARIDADE = Math.max(4096, Integer.getInteger("granularidade", 256 * 1024));
+
+    private ContagemParalela() {}
+
+    /** Conta os bytes restantes de "dados" iguais a "procurado" (sem alterar a posição). */
+    public static long contar(ByteBuffer dados, byte procurado) {
+        return new TarefaContagem(dados, dados.position(), dados.remaining(), procurado).invoke();
+    }
+
+    public static long contar(byte[] numeros, int inicio, int len, byte procurado) {
+        return contar(ByteBuffer.wrap(numeros, inicio, len), procurado);
+    }
+
+    /** Histograma dos bytes restantes de "dados" (sem alterar a posição). */
+    public static int[] histograma(ByteBuffer dados) {
+        return new TarefaHistograma(dados, dados.position(), dados.remaining()).invoke();
+    }
+
+    @SuppressWarnings("serial") // tarefas só vivem dentro do pool, nunca são serializadas
+    static final class TarefaContagem extends RecursiveTask<Long> {
+        private final ByteBuffer dados;
+        private final int inicio;
+        private final int len;
+        private final byte procurado;
+
+        TarefaContagem(ByteBuffer dados, int inicio, int len, byte procurado) {
+            this.dados = dados;
+            this.inicio = inicio;
+            this.len = len;
+            this.procurado = procurado;
+        }
+
+        @Override
+        protected Long compute() {
+            if (len <= GRANULARIDADE) {
+                return (long) KernelContagem.ATIVO.contar(dados.slice(inicio, len), procurado);
+            }
+            int metade = len >>> 1;
+            TarefaContagem direita = new TarefaContagem(dados, inicio + metade, len - metade, procurado);
+            direita.fork();
+            long esquerda = new TarefaContagem(dados, inicio, metade, procurado).compute();
+            return esquerda + direita.join();
+        }
+    }
+
+    @SuppressWarnings("serial") // tarefas só vivem dentro do pool, nunca são serializadas
+    static final class TarefaHistograma extends RecursiveTask<int[]> {
+        private final ByteBuffer dados;
+        private final int inicio;
+        private final int len;
+
+        TarefaHistograma(ByteBuffer dados, int inicio, int len) {
+            this.dados = dados;
+            this.inicio = inicio;
+            this.len = len;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (len <= GRANULARIDADE) {
+                int[] tabela = new int[Histograma.TAMANHO];
+                Histograma.acumular(dados.slice(inicio, len), tabela);
+                return tabela;
+            }
+            int metade = len >>> 1;
+            TarefaHistograma direita = new TarefaHistograma(dados, inicio + metade, len - metade);
+            direita.fork();
+            int[] tabela = new TarefaHistograma(dados, inicio, metade).compute();
+            int[] outra = direita.join();
+            for (int v = 0; v < Histograma.TAMANHO; v++) {
+                tabela[v] += outra[v];
+            }
+            return tabela;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A parte de um dataset em ingestão (ver Ingestao) que cabe a um receptor,
+ * com as contagens de cada valor mantidas a cada escrita: um byte novo soma
+ * 1 ao seu valor, e um byte sobrescrito tira 1 do valor antigo antes. Uma
+ * contagem, ou a tabela inteira, sai então em O(1), sem passada sobre os dados.
+ *
+ * Os bytes ficam em páginas fora do heap de PAGINA bytes, indexadas pela
+ * posição no dataset inteiro (o receptor guarda só as faixas que são dele,
+ * então a maioria das páginas nunca existe). Dentro de uma página a escrita
+ * não pode deixar buraco: cada faixa cresce por anexação no fim.
+ *
+ * Não entra no orçamento do CacheShards; a memória é a dos bytes ingeridos.
+ */
+final class DatasetVivo {
+
+    static final int PAGINA = 1 << 20;
+
+    private static final class Pagina {
+        final ByteBuffer dados = ByteBuffer.allocateDirect(PAGINA);
+        int preenchido;
+    }
+
+    private final Map<Long, Pagina> paginas = new HashMap<>();
+    private final long[] contagens = new long[Histograma.TAMANHO];
+    private final int[] rascunho = new int[Histograma.TAMANHO];
+    private long bytes;
+
+    /**
+     * Escreve dados[off, off + len) a partir de "posicao".
+     * @throws IllegalArgumentException se a escrita deixaria um buraco numa página.
+     */
+    void escrever(long posicao, byte[] dados, int off, int len) {
+        escrever(posicao, ByteBuffer.wrap(dados, off, len));
+    }
+
+    /**
+     * Escreve os bytes restantes de "dados" (sem alterar a posição) a partir
+     * de "posicao". Buffers diretos (os de recepção do receptor) são lidos no lugar.
+     * @throws IllegalArgumentException se a escrita deixaria um buraco numa página.
+     */
+    synchronized void escrever(long posicao, ByteBuffer dados) {
+        int off = dados.position();
+        int len = dados.remaining();
+        while (len > 0) {
+            long numero = posicao / PAGINA;
+            int inicio = (int) (posicao % PAGINA);
+            int n = Math.min(len, PAGINA - inicio);
+            Pagina p = paginas.get(numero);
+            if (p == null) {
+                if (inicio != 0) throw buraco(posicao, 0);
+                p = new Pagina();
+                paginas.put(numero, p);
+            }
+            if (inicio > p.preenchido) throw buraco(posicao, numero * PAGINA + p.preenchido);
+
+            // sobrescrita: troca o valor antigo pelo novo, byte a byte
+            int sobrescritos = Math.min(n, p.preenchido - inicio);
+            for (int i = 0; i < sobrescritos; i++) {
+                byte novo = dados.get(off + i);
+                contagens[p.dados.get(inicio + i) & 0xFF]--;
+                contagens[novo & 0xFF]++;
+                p.dados.put(inicio + i, novo);
+            }
+            // anexação: só soma, com o mesmo kernel do histograma dos lotes
+            int anexados = n - sobrescritos;
+            if (anexados > 0) {
+                ByteBuffer novos = dados.slice(off + sobrescritos, anexados);
+                Arrays.fill(rascunho, 0);
+                Histograma.acumular(novos, rascunho);
+                Histograma.somar(contagens, rascunho);
+                p.dados.put(inicio + sobrescritos, novos, 0, anexados);
+                p.preenchido += anexados;
+                bytes += anexados;
+            }
+            posicao += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static IllegalArgumentException buraco(long posicao, long fim) {
+        return new IllegalArgumentException("Escrita em " + posicao + " deixaria um buraco depois de " + fim);
+    }
+
+    synchronized long contar(byte valor) {
+        return contagens[valor & 0xFF];
+    }
+
+    synchronized long[] histograma() {
+        return contagens.clone();
+    }
+
+    /** Bytes guardados aqui (só as faixas deste receptor). */
+    synchronized long getBytes() {
+        return bytes;
+    }
+}
@@ -1,126 +1,665 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Distribuidor {
 
     // --- CLASSE INTERNA (ajudante) para guardar as "tarefas" ---
-    private static class Intervalo {
-        final int inicio;
-        final int fim;
+    static class Intervalo {
+        final long inicio; // long: datasets acima de 2^31 elementos
+        final long fim;
 
-        Intervalo(int inicio, int fim) {
+        Intervalo(long inicio, long fim) {
             this.inicio = inicio;
             this.fim = fim;
         }
     }
+
+    /**
+     * Estado compartilhado de uma rodada: quais blocos já têm resposta (a
+     * primeira vence; duplicatas de hedge são descartadas), quais estão em voo
+     * desde quando, e as latências já observadas, que dão o limiar de hedge.
+     */
+    static final class EstadoRodada {
+        private final long totalBlocos;
+        private final Set<Long> concluidos = ConcurrentHashMap.newKeySet(); // inicio dos blocos já respondidos
+        private final Map<Long, EmVoo> emVoo = new ConcurrentHashMap<>();   // inicio -> primeiro despacho sem resposta
+        private final Queue<Long> latencias = new ConcurrentLinkedQueue<>();
+        List<ContadorThread> threads = List.of();
+
+        private static final class EmVoo {
+            final Intervalo inter;
+            final String destino;
+            final long desde = System.nanoTime();
+            final AtomicBoolean hedgeado = new AtomicBoolean();
+
+            EmVoo(Intervalo inter, String destino) {
+                this.inter = inter;
+                this.destino = destino;
+            }
+        }
+
+        EstadoRodada(long totalBlocos) {
+            this.totalBlocos = totalBlocos;
+        }
+
+        void despachado(Intervalo inter, String destino) {
+            if (!concluidos.contains(inter.inicio)) emVoo.putIfAbsent(inter.inicio, new EmVoo(inter, destino));
+        }
+
+        /** @return true se esta é a primeira resposta do bloco (a que conta). */
+        boolean concluir(Intervalo inter, long latenciaNanos) {
+            if (!concluidos.add(inter.inicio)) return false;
+            emVoo.remove(inter.inicio);
+            latencias.add(latenciaNanos);
+            avisar();
+            return true;
+        }
+
+        /** Bloco de um receptor que falhou: volta a ser despachável, se ninguém respondeu ainda. */
+        boolean devolver(Intervalo inter) {
+            if (concluidos.contains(inter.inicio)) return false;
+            emVoo.remove(inter.inicio);
+            avisar();
+            return true;
+        }
+
+        boolean todosConcluidos() {
+            return concluidos.size() >= totalBlocos;
+        }
+
+        long blocosSemResposta() {
+            return totalBlocos - concluidos.size();
+        }
+
+        /**
+         * Um bloco em voo em outro receptor há mais tempo que o percentil
+         * HEDGE_PERCENTIL das latências desta rodada, ainda não duplicado.
+         * Null se não há candidato (ou amostras insuficientes).
+         */
+        Intervalo candidatoHedge(String destino) {
+            if (!HEDGE || latencias.size() < HEDGE_MIN_AMOSTRAS) return null;
+            long limiar = percentil(HEDGE_PERCENTIL);
+            long agora = System.nanoTime();
+            for (EmVoo e : emVoo.values()) {
+                if (!e.destino.equals(destino) && agora - e.desde > limiar && e.hedgeado.compareAndSet(false, true)) {
+                    return e.inter;
+                }
+            }
+            return null;
+        }
+
+        private long percentil(double p) {
+            long[] amostras = latencias.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(amostras);
+            int i = (int) Math.ceil(p / 100.0 * amostras.length) - 1;
+            return amostras[Math.max(0, Math.min(amostras.length - 1, i))];
+        }
+
+        /** Espera algo mudar (bloco concluído ou devolvido), no máximo "ms" milissegundos. */
+        synchronized void aguardar(long ms) throws InterruptedException {
+            if (!todosConcluidos()) wait(ms);
+        }
+
+        synchronized void avisar() {
+            notifyAll();
+        }
+    }
     
-    // --- CLASSE INTERNA DA THREAD (Atualizada para "Modo Batch") ---
+    // --- CLASSE INTERNA DA THREAD (Modo "pull" com roubo de trabalho) ---
     static class ContadorThread extends Thread {
-        private final String host;
-        private final int port;
-        private final BlockingQueue<Intervalo> queue;
-        private final byte[] grandeVetor;
+        private final String destino; // "host:port" ou "local-N"
+        private final int indice;
+        private final List<Deque<Intervalo>> filas; // uma por receptor, compartilhadas entre as threads
+        private final int janela;
+        private final VetorSegmentado grandeVetor;
         private final byte procurado;
+        private final boolean histograma; // true: pede as 256 contagens em vez de contar "procurado"
+        private final Agregacao.Consulta[] consultas; // != null: lote de consultas agregadas (uma passada)
+        private final long datasetId; // SEM_CACHE desliga o cache de shards nos receptores
+        private final Map<Long, String> afinidade; // inicio do bloco -> receptor que o tem em cache
+        private final EstadoRodada estado;
+        private boolean cacheAtivo = false;
+
+        // Lidos pela thread principal, que faz o papel de watchdog (ver executarRodada)
+        private volatile CanalReceptor conexao;
+        private volatile long prazo = Long.MAX_VALUE; // nanoTime limite da requisição mais antiga em voo
+        private final AtomicBoolean abortada = new AtomicBoolean();
         
-        private int contagemParcial = 0; // Armazena o resultado
+        private long contagemParcial = 0; // Armazena o resultado
+        private final long[] histogramaParcial = new long[Histograma.TAMANHO];
+        private Agregacao.Parcial[] agregadosParciais; // null até a primeira resposta agregada
+        private boolean falhou = false;
+
+        // Relatório por receptor
+        private int blocosProcessados = 0;
+        private int blocosRoubados = 0;
+        private int blocosDoCache = 0;
+        private int blocosHedge = 0;
+        private int duplicadasDescartadas = 0;
+        private long bytesProcessados = 0;
+        private long tempoNanos = 0;
+
+        // Fases, somadas sobre os blocos desta rodada (ver EventosContagem.Bloco)
+        private long nanosCopia = 0;
+        private long nanosEnvio = 0;
+        private long nanosEspera = 0; // do fim do envio até a Resposta: rede + fila e contagem no receptor
+        private long maxEspera = 0;
+        private long bytesEnviados = 0;
+        private long bytesRecebidos = 0;
+
+        /** Um bloco em voo: o intervalo e o que foi medido no envio. */
+        private static final class Despacho {
+            final Intervalo inter;
+            final boolean consulta;
+            final EventosContagem.Bloco evento = new EventosContagem.Bloco();
+            final long inicioEnvio = System.nanoTime();
+            long enviadoEm;
 
-        public ContadorThread(String host, int port, BlockingQueue<Intervalo> queue, byte[] grandeVetor, byte procurado) {
-            this.host = host;
-            this.port = port;
-            this.queue = queue;
+            Despacho(Intervalo inter, boolean consulta) {
+                this.inter = inter;
+                this.consulta = consulta;
+            }
+        }
+
+        public ContadorThread(String destino, int indice, List<Deque<Intervalo>> filas, int janela,
+                              VetorSegmentado grandeVetor, long datasetId, byte procurado, boolean histograma,
+                              Agregacao.Consulta[] consultas, EstadoRodada estado) {
+            this.estado = estado;
+            this.histograma = histograma;
+            this.consultas = consultas;
+            this.datasetId = datasetId;
+            this.afinidade = afinidadeDo(datasetId);
+            this.destino = destino;
+            this.indice = indice;
+            this.filas = filas;
+            this.janela = Math.max(1, janela);
             this.grandeVetor = grandeVetor;
             this.procurado = procurado;
         }
 
+        /**
+         * Próximo bloco a enviar: primeiro da própria fila (pela frente); se ela
+         * estiver vazia, rouba do fim da fila mais cheia de outro receptor.
+         */
+        private Intervalo proximoBloco() {
+            Intervalo inter = filas.get(indice).pollFirst();
+            if (inter != null) return inter;
+
+            while (true) {
+                Deque<Intervalo> vitima = null;
+                int maior = 0;
+                for (int i = 0; i < filas.size(); i++) {
+                    if (i == indice) continue;
+                    int tamanho = filas.get(i).size();
+                    if (tamanho > maior) {
+                        maior = tamanho;
+                        vitima = filas.get(i);
+                    }
+                }
+                if (vitima == null) return null; // nada mais em nenhuma fila
+                inter = vitima.pollLast();
+                if (inter != null) {
+                    blocosRoubados++;
+                    return inter;
+                }
+                // outra thread esvaziou a vítima entre size() e pollLast(); tenta de novo
+            }
+        }
+
+        private String destino() {
+            return destino;
+        }
+
+        /** Envia os dados do bloco; com cache ativo, pede ao receptor que guarde o shard. */
+        private int enviarDados(CanalReceptor conexao, Intervalo inter) throws IOException {
+            if (consultas != null) {
+                conexao.iniciarLoteAgregacao(grandeVetor, consultas);
+            } else if (histograma) {
+                conexao.iniciarLoteHistograma(grandeVetor);
+            } else {
+                conexao.iniciarLote(grandeVetor, procurado);
+            }
+            if (cacheAtivo) conexao.marcarParaCache(datasetId, inter);
+            conexao.enviar(inter);
+            return conexao.fecharLote();
+        }
+
+        /**
+         * Se este receptor já recebeu o bloco antes, manda só a consulta (sem dados);
+         * senão envia os dados. Mede cópia e envio e registra o bloco em "emVoo".
+         */
+        private void despachar(CanalReceptor conexao, Intervalo inter, boolean permitirConsulta,
+                               Map<Integer, Despacho> emVoo) throws IOException {
+            boolean consulta = permitirConsulta && cacheAtivo && destino().equals(afinidade.get(inter.inicio));
+            Despacho d = new Despacho(inter, consulta);
+            d.evento.begin();
+            // o prazo vale também para o envio: um receptor travado pode parar de ler o socket
+            prazo = Math.min(prazo, d.inicioEnvio + PRAZO_NANOS);
+            estado.despachado(inter, destino());
+            long copia0 = conexao.getNanosCopia();
+            long bytes0 = conexao.getBytesEnviados();
+            long t0 = System.nanoTime();
+            int requestId;
+            if (!consulta) {
+                requestId = enviarDados(conexao, inter);
+            } else if (consultas != null) {
+                requestId = conexao.enviarConsultaAgregada(datasetId, inter, consultas);
+            } else {
+                requestId = conexao.enviarConsulta(datasetId, inter, procurado, histograma);
+            }
+            d.enviadoEm = System.nanoTime();
+            long copia = conexao.getNanosCopia() - copia0;
+            long envio = d.enviadoEm - t0 - copia;
+            long bytes = conexao.getBytesEnviados() - bytes0;
+            nanosCopia += copia;
+            nanosEnvio += envio;
+            d.evento.copiaNanos = copia;
+            d.evento.envioNanos = envio;
+            d.evento.bytesEnviados = bytes;
+            Metricas.tempo(Metricas.porReceptor("distribuidor_copia", destino())).registrar(copia);
+            Metricas.tempo(Metricas.porReceptor("distribuidor_envio", destino())).registrar(envio);
+            emVoo.put(requestId, d);
+        }
+
+        /** Prazo = o da requisição mais antiga ainda em voo. */
+        private void atualizarPrazo(Map<Integer, Despacho> emVoo) {
+            long p = Long.MAX_VALUE;
+            for (Despacho d : emVoo.values()) p = Math.min(p, d.inicioEnvio + PRAZO_NANOS);
+            prazo = p;
+        }
+
+        /**
+         * Chamado pelo watchdog: derruba a sessão com o receptor e a thread sai
+         * pelo caminho de falha (com o pool, as outras threads sobre a mesma
+         * sessão também; um receptor travado não serve a nenhuma delas).
+         */
+        void abortar(String motivo) {
+            CanalReceptor c = conexao;
+            if (c == null || !abortada.compareAndSet(false, true)) return;
+            System.err.printf("[D] %s: %s. Fechando a conexão.%n", destino(), motivo);
+            c.derrubar(motivo);
+        }
+
+        /**
+         * Chamado pelo watchdog com a rodada já concluída: só solta o canal,
+         * a sessão segue aberta e as respostas atrasadas são descartadas.
+         */
+        void soltar() {
+            CanalReceptor c = conexao;
+            if (c == null || !abortada.compareAndSet(false, true)) return;
+            try {
+                c.close();
+            } catch (IOException ignored) {}
+        }
+
+        /** Fecha as medidas de um bloco cuja Resposta chegou. */
+        private void registrarResposta(Despacho d) {
+            long espera = System.nanoTime() - d.enviadoEm;
+            nanosEspera += espera;
+            maxEspera = Math.max(maxEspera, espera);
+            Metricas.tempo(Metricas.porReceptor("distribuidor_espera", destino())).registrar(espera);
+            if (d.evento.shouldCommit()) {
+                d.evento.receptor = destino();
+                d.evento.inicio = d.inter.inicio;
+                d.evento.fim = d.inter.fim;
+                d.evento.doCache = d.consulta;
+                d.evento.commit();
+            }
+        }
+
         @Override
         public void run() {
-            int localCountSum = 0;
+            long localCountSum = 0;
             long threadId = Thread.currentThread().threadId();
+            long t0 = System.nanoTime();
+            Map<Integer, Despacho> emVoo = new HashMap<>();
             
-            try (Socket socket = new Socket(host, port);
-                 ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-
-                System.out.printf("[D] Conectado a %s:%d (Thread %d)%n", host, port, threadId);
-
-                // --- 1. CRIAR O BATCH (LOCALMENTE, SEM REDE) ---
-                List<Pedido> batchDePedidos = new ArrayList<>();
-                Intervalo inter;
-                // Pega todas as tarefas da fila atribuídas a esta thread
-                while ((inter = queue.poll(500, TimeUnit.MILLISECONDS)) != null) {
-                    int len = inter.fim - inter.inicio;
-                    byte[] sub = new byte[len];
-                    System.arraycopy(grandeVetor, inter.inicio, sub, 0, len);
-                    Pedido p = new Pedido(sub, procurado); // <-- Usa Pedido.java
-                    batchDePedidos.add(p);
+            try (CanalReceptor conexao = CanalReceptor.abrir(destino)) {
+                this.conexao = conexao;
+
+                System.out.printf("[D] Conectado a %s (Thread %d, protocolo %s)%n", destino, threadId,
+                        conexao.protocolo());
+                if (conexao.getOrcamentoReceptor() >= 0) ORCAMENTOS.put(destino(), conexao.getOrcamentoReceptor());
+
+                cacheAtivo = afinidade != null && conexao.suportaCache();
+
+                // --- 1. MANTER ATÉ "janela" BLOCOS EM VOO; CADA RESPOSTA LIBERA O PRÓXIMO ---
+                // Sem blocos nas filas, duplica (hedge) blocos lentos de outros receptores;
+                // só sai quando todos os blocos da rodada têm resposta, de quem for.
+                while (!estado.todosConcluidos()) {
+                    while (emVoo.size() < janela) {
+                        Intervalo inter = proximoBloco();
+                        boolean hedge = false;
+                        if (inter == null) {
+                            inter = estado.candidatoHedge(destino());
+                            hedge = inter != null;
+                        }
+                        if (inter == null) break;
+                        if (hedge) {
+                            blocosHedge++;
+                            System.out.printf("[D] (Thread %d) Hedge do bloco [%d, %d) em %s%n",
+                                    threadId, inter.inicio, inter.fim, destino());
+                        }
+                        despachar(conexao, inter, true, emVoo);
+                    }
+                    if (emVoo.isEmpty()) {
+                        estado.aguardar(ESPERA_OCIOSA_MS);
+                        continue;
+                    }
+
+                    // --- 2. RECEBER UMA RESPOSTA (PODE VIR FORA DE ORDEM) ---
+                    CanalReceptor.RespostaRecebida r = conexao.receberResposta();
+                    Despacho d = emVoo.remove(r.requestId);
+                    atualizarPrazo(emVoo);
+                    if (d == null) {
+                        System.out.printf("[D] (Thread %d) Resposta para requisição desconhecida: %d%n", threadId, r.requestId);
+                        continue;
+                    }
+                    Intervalo concluido = d.inter;
+                    registrarResposta(d);
+                    if (r.cacheMiss) {
+                        // o receptor não tem mais o shard (descartado por LRU): reenvia os dados
+                        afinidade.remove(concluido.inicio, destino());
+                        despachar(conexao, concluido, false, emVoo);
+                        continue;
+                    }
+                    if (!estado.concluir(concluido, System.nanoTime() - d.inicioEnvio)) {
+                        // outro receptor respondeu primeiro (hedge): esta resposta não conta
+                        duplicadasDescartadas++;
+                        Metricas.contador(Metricas.porReceptor("distribuidor_duplicadas", destino())).increment();
+                        continue;
+                    }
+                    if (d.consulta) {
+                        blocosDoCache++;
+                    } else if (cacheAtivo) {
+                        afinidade.put(concluido.inicio, destino());
+                    }
+                    localCountSum += r.contagem;
+                    if (r.histograma != null) Histograma.somar(histogramaParcial, r.histograma);
+                    if (r.agregados != null) {
+                        agregadosParciais = Agregacao.combinar(consultas, agregadosParciais, r.agregados);
+                    }
+                    blocosProcessados++;
+                    bytesProcessados += concluido.fim - concluido.inicio;
+                    Metricas.contador(Metricas.porReceptor("distribuidor_blocos", destino())).increment();
                 }
 
-                // Se esta thread não pegou nenhum trabalho (fila estava vazia),
-                // apenas encerra a conexão.
-                if (batchDePedidos.isEmpty()) {
+                if (blocosProcessados == 0) {
                     System.out.printf("[D] (Thread %d) Nenhum trabalho na fila.%n", threadId);
-                    this.contagemParcial = 0;
-                } else {
-                    // --- 2. ENVIAR O BATCH DE UMA VEZ (1 COMUNICAÇÃO) ---
-                    System.out.printf("[D] (Thread %d) Enviando batch de %d pedidos...%n", threadId, batchDePedidos.size());
-                    out.writeObject(batchDePedidos); // Envia a LISTA inteira
-                    out.flush();
-                    out.reset();
-
-                    // --- 3. ESPERAR PELA RESPOSTA ÚNICA (1 COMUNICAÇÃO) ---
-                    System.out.printf("[D] (Thread %d) Aguardando resposta do batch...%n", threadId);
-                    Object o = in.readObject(); // Espera UMA resposta
-
-                    if (o instanceof Resposta r) { // <-- Usa Resposta.java
-                        localCountSum = r.getContagem();
-                        System.out.printf("[D] (Thread %d) Resposta do batch recebida: %d%n", threadId, localCountSum);
-                    } else {
-                        System.out.printf("[D] Objeto inesperado na resposta de %s:%d: %s%n",
-                                host, port, o.getClass().getName());
-                    }
                 }
+                System.out.printf("[D] (Thread %d) %d blocos contados (%d roubados, %d do cache, %d hedges, %d duplicadas): %d%n",
+                        threadId, blocosProcessados, blocosRoubados, blocosDoCache, blocosHedge,
+                        duplicadasDescartadas, localCountSum);
 
-                // --- 4. FIM ---
-                ComunicadoEncerramento fim = new ComunicadoEncerramento(); // <-- Usa ComunicadoEncerramento.java
-                out.writeObject(fim);
-                out.flush();
-                out.reset();
-                System.out.printf("[D] Enviado ComunicadoEncerramento a %s:%d (Thread %d)%n", 
-                                  host, port, threadId);
+                // --- 3. FIM ---
+                prazo = Long.MAX_VALUE;
+                conexao.encerrar();
+                System.out.printf("[D] Enviado ComunicadoEncerramento a %s (Thread %d)%n", 
+                                  destino, threadId);
+                bytesEnviados = conexao.getBytesEnviados();
+                bytesRecebidos = conexao.getBytesRecebidos();
+                Metricas.contador(Metricas.porReceptor("distribuidor_bytes_enviados", destino())).add(bytesEnviados);
+                Metricas.contador(Metricas.porReceptor("distribuidor_bytes_recebidos", destino())).add(bytesRecebidos);
 
             } catch (IOException | ClassNotFoundException | NumberFormatException | InterruptedException ex) {
-                System.err.printf("[D] Erro ao comunicar com %s:%d (Thread %d): %s%n", 
-                                  host, port, threadId, ex.getMessage());
+                if (estado.todosConcluidos()) {
+                    // só restavam respostas duplicadas de um receptor lento; nada se perdeu
+                    System.out.printf("[D] %s abandonado com %d respostas atrasadas (Thread %d)%n",
+                            destino, emVoo.size(), threadId);
+                } else {
+                    System.err.printf("[D] Erro ao comunicar com %s (Thread %d): %s%n", 
+                                      destino, threadId,
+                                      ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName());
+                    falhou = true;
+                    reatribuir(emVoo.values());
+                }
             }
             
+            this.prazo = Long.MAX_VALUE;
+            this.tempoNanos = System.nanoTime() - t0;
             this.contagemParcial = localCountSum;
         }
         
-        public int getContagemParcial() {
+        /**
+         * Devolve os blocos que estavam em voo neste receptor para a própria
+         * fila, de onde os outros receptores os roubam. Os shards que ele
+         * guardava deixam de ser consultados nele.
+         */
+        private void reatribuir(Collection<Despacho> perdidos) {
+            int devolvidos = 0;
+            for (Despacho d : perdidos) {
+                if (estado.devolver(d.inter)) {
+                    filas.get(indice).addFirst(d.inter);
+                    devolvidos++;
+                }
+            }
+            if (afinidade != null) afinidade.values().removeIf(destino()::equals);
+            if (devolvidos > 0) {
+                System.err.printf("[D] %d blocos de %s reatribuídos aos outros receptores.%n", devolvidos, destino());
+            }
+            Metricas.contador(Metricas.porReceptor("distribuidor_falhas", destino())).increment();
+        }
+
+        public long getContagemParcial() {
             return contagemParcial;
         }
+
+        public long[] getHistogramaParcial() {
+            return histogramaParcial;
+        }
+
+        /** Parciais combinados dos blocos deste receptor, ou null se ele não respondeu nenhum. */
+        public Agregacao.Parcial[] getAgregadosParciais() {
+            return agregadosParciais;
+        }
+
+        public boolean falhou() {
+            return falhou;
+        }
+
+        /** Uma linha da tabela de relatório por receptor. */
+        String linhaRelatorio() {
+            double ms = tempoNanos / 1_000_000.0;
+            double mb = bytesProcessados / (1024.0 * 1024.0);
+            return String.format("%-22s %8d %8d %8d %8d %12.2f %12.3f %10.2f%s",
+                    destino(), blocosProcessados, blocosRoubados, blocosDoCache, blocosHedge, mb, ms,
+                    ms > 0 ? mb / (ms / 1000.0) : 0.0, falhou ? "  FALHOU" : "");
+        }
+
+        /** Uma linha da tabela de fases por receptor. */
+        String linhaFases() {
+            int respostas = Math.max(1, blocosProcessados);
+            return String.format("%-22s %10.3f %10.3f %12.3f %12.3f %12.2f %12.2f",
+                    destino(), nanosCopia / 1e6, nanosEnvio / 1e6, nanosEspera / 1e6 / respostas, maxEspera / 1e6,
+                    bytesEnviados / (1024.0 * 1024.0), bytesRecebidos / 1024.0);
+        }
     }
     // --- FIM DA CLASSE INTERNA DA THREAD ---
 
 
-    // IPs dos receptores. Mude para os IPs reais no teste distribuído.
-    private static final String[] RECEPTORS = {
+    // Receptores usados quando nem a linha de comando nem um arquivo dizem outra coisa
+    private static final String[] RECEPTORES_PADRAO = {
         "172.16.130.39:12345",  // <-- Exemplo com seu IP de rede
         "172.16.130.45:12346",
         "172.16.130.82:12347"
     };
+    private static final String ARQUIVO_RECEPTORES = "receptores.conf";
+
+    // Lista em uso, lida no início do main (ver carregarReceptores)
+    private static String[] RECEPTORS = RECEPTORES_PADRAO;
+
+    /**
+     * A lista de receptores, na primeira fonte que existir:
+     *   1. argumentos depois do tamanho do vetor: java Distribuidor <tamanho> <receptor>...
+     *   2. -Dreceptores=<receptor>,<receptor>,...
+     *   3. o arquivo de -Dreceptores.arquivo, ou receptores.conf no diretório atual
+     *      (um receptor por linha; "#" começa um comentário)
+     *   4. RECEPTORES_PADRAO
+     * Cada receptor é "host:port" (porta padrão 12345), "local" (um receptor no
+     * processo por nó NUMA) ou "local:N"; remotos e locais podem ser misturados.
+     */
+    static String[] carregarReceptores(String[] args) throws IOException {
+        if (args.length >= 2) {
+            return Arrays.copyOfRange(args, 1, args.length);
+        }
+        String propriedade = System.getProperty("receptores");
+        if (propriedade != null && !propriedade.isBlank()) {
+            return propriedade.trim().split("\\s*,\\s*");
+        }
+        File arquivo = new File(System.getProperty("receptores.arquivo", ARQUIVO_RECEPTORES));
+        if (arquivo.isFile()) {
+            System.out.printf("[D] Receptores lidos de %s%n", arquivo);
+            return lerArquivoReceptores(arquivo);
+        }
+        return RECEPTORES_PADRAO;
+    }
+
+    /** Um receptor por linha; "#" começa um comentário. */
+    static String[] lerArquivoReceptores(File arquivo) throws IOException {
+        List<String> lidos = new ArrayList<>();
+        for (String linha : Files.readAllLines(arquivo.toPath())) {
+            int comentario = linha.indexOf('#');
+            String r = (comentario >= 0 ? linha.substring(0, comentario) : linha).trim();
+            if (!r.isEmpty()) lidos.add(r);
+        }
+        if (lidos.isEmpty()) throw new IOException("Nenhum receptor em " + arquivo);
+        return lidos.toArray(new String[0]);
+    }
+
+    /**
+     * Os destinos de uma lista de receptores: "local"/"local:N" viram
+     * "local-0", "local-1", ... e "host" sem porta ganha a 12345.
+     */
+    static List<String> destinosDe(String[] receptors) {
+        List<String> destinos = new ArrayList<>();
+        int locais = 0;
+        for (String r : receptors) {
+            if (ReceptorLocal.ehLocal(r) && !r.startsWith(ReceptorLocal.PREFIXO + "-")) {
+                List<String> expandidos = ReceptorLocal.expandir(r, locais);
+                locais += expandidos.size();
+                destinos.addAll(expandidos);
+            } else {
+                destinos.add(ReceptorLocal.ehLocal(r) || r.contains(":") ? r : r + ":12345");
+            }
+        }
+        return destinos;
+    }
 
-    private static final int BLOCKS_PER_SERVER = 8; 
+    // Blocos pequenos para que o roubo de trabalho consiga equilibrar nós lentos e rápidos
+    private static final int BLOCKS_PER_SERVER = 32; 
+
+    // Quantos blocos cada receptor pode ter enviados e ainda sem Resposta
+    private static final int JANELA_EM_VOO = Integer.getInteger("janela", 2);
+
+    // Prazo de cada requisição (envio + resposta); estourado, o receptor é dado como
+    // morto nesta rodada e seus blocos vão para os outros
+    private static final long PRAZO_NANOS = Long.getLong("prazo.ms", 30_000) * 1_000_000L;
+    // Hedge: um receptor ocioso duplica um bloco que está demorando mais que este
+    // percentil das latências da rodada; vale a primeira resposta
+    private static final boolean HEDGE = !"false".equalsIgnoreCase(System.getProperty("hedge"));
+    private static final double HEDGE_PERCENTIL = Double.parseDouble(System.getProperty("hedge.percentil", "95"));
+    private static final int HEDGE_MIN_AMOSTRAS = 4;
+    private static final long ESPERA_OCIOSA_MS = 10;
+    private static final long INTERVALO_WATCHDOG_MS = 20;
+    // Com a rodada concluída, quanto esperar as threads encerrarem sozinhas antes de derrubá-las
+    private static final long TOLERANCIA_ENCERRAMENTO_NANOS = 100_000_000L;
+
+    // Dataset sem identificação: os receptores não guardam os shards
+    static final long SEM_CACHE = 0L;
+
+    // datasetId -> (inicio do bloco -> "host:port" do receptor que guardou o shard)
+    private static final Map<Long, Map<Long, String>> AFINIDADE = new ConcurrentHashMap<>();
+
+    private static Map<Long, String> afinidadeDo(long datasetId) {
+        if (datasetId == SEM_CACHE) return null;
+        return AFINIDADE.computeIfAbsent(datasetId, k -> new ConcurrentHashMap<>());
+    }
+
+    /** Esquece onde estão os shards de um dataset que não será mais consultado. */
+    static void esquecerDataset(long datasetId) {
+        AFINIDADE.remove(datasetId);
+    }
+
+    // "host:port" -> orçamento de memória informado pelo receptor no handshake
+    private static final Map<String, Long> ORCAMENTOS = new ConcurrentHashMap<>();
+
+    /**
+     * Abre uma conexão rápida com cada receptor só para o handshake e anota o
+     * orçamento de memória que ele informa, antes de qualquer dado ser gerado.
+     * Receptores locais contam no próprio vetor do Distribuidor e não entram na soma.
+     * @return A soma dos orçamentos, ou -1 se algum receptor remoto não informou (ou não há remotos).
+     */
+    static long consultarOrcamentos(String[] receptors) {
+        long soma = 0;
+        boolean todos = true;
+        int remotos = 0;
+        for (String destino : destinosDe(receptors)) {
+            if (ReceptorLocal.ehLocal(destino)) continue;
+            remotos++;
+            try (CanalReceptor conexao = CanalReceptor.abrir(destino)) {
+                long orcamento = conexao.getOrcamentoReceptor();
+                conexao.encerrar();
+                if (orcamento < 0) {
+                    System.out.printf("[D] %s não informa orçamento de memória.%n", destino);
+                    todos = false;
+                } else {
+                    ORCAMENTOS.put(destino, orcamento);
+                    soma += orcamento;
+                    System.out.printf("[D] Orçamento de %s: %,d bytes (%.2f MB)%n",
+                            destino, orcamento, orcamento / (1024.0 * 1024.0));
+                }
+            } catch (IOException e) {
+                System.err.printf("[D] Erro ao consultar orçamento de %s: %s%n", destino, e.getMessage());
+                todos = false;
+            }
+        }
+        return todos && remotos > 0 ? soma : -1;
+    }
+
+    /** Peso de cada receptor na divisão inicial: o orçamento em MB, ou 1 para todos se algum é desconhecido. */
+    private static long[] pesosPorOrcamento(List<String> destinos) {
+        long[] pesos = new long[destinos.size()];
+        for (int i = 0; i < pesos.length; i++) {
+            Long orcamento = ORCAMENTOS.get(destinos.get(i));
+            if (orcamento == null || orcamento <= 0) {
+                Arrays.fill(pesos, 1);
+                return pesos;
+            }
+            pesos[i] = Math.max(1, orcamento >> 20);
+        }
+        return pesos;
+    }
 
     public static void main(String[] args) throws Exception {
+        Metricas.iniciarHttpSeConfigurado();
+        RECEPTORS = carregarReceptores(args);
+        List<String> destinos = destinosDe(RECEPTORS);
+        System.out.printf("[D] %d receptores: %s%n", destinos.size(), String.join(", ", destinos));
+        if (destinos.stream().anyMatch(ReceptorLocal::ehLocal)) {
+            System.out.printf("[D] Receptores locais: %d nós NUMA, %d threads cada%n",
+                    ReceptorLocal.NOS_NUMA, ReceptorLocal.THREADS_POR_RECEPTOR);
+        }
         
         try (Scanner scanner = new Scanner(System.in)) {
 
-            int tamanhoMaximoEstimado = MaiorVetorAproximado.estimar(); // <-- Usa MaiorVetorAproximado.java
+            // O vetor fica fora do heap (VetorSegmentado), então o limite é a memória direta.
+            // Calculado pelo PlanejadorMemoria, sem alocação de teste.
+            long tamanhoMaximoEstimado = MaiorVetorAproximado.estimarForaDoHeap(); // <-- Usa MaiorVetorAproximado.java
+            System.out.printf("[D] Memória local disponível: %,d elementos (%.2f MB)%n", 
+                                tamanhoMaximoEstimado, tamanhoMaximoEstimado / (1024.0 * 1024.0));
+
+            // Os receptores informam quanto conseguem manter residente; o vetor não passa da soma
+            long somaOrcamentos = consultarOrcamentos(RECEPTORS);
+            if (somaOrcamentos >= 0 && somaOrcamentos < tamanhoMaximoEstimado) {
+                tamanhoMaximoEstimado = somaOrcamentos;
+                System.out.printf("[D] Limitado pela soma dos orçamentos dos receptores: %,d elementos%n", somaOrcamentos);
+            }
             
-            int tamanhoMaximo = (int)(tamanhoMaximoEstimado * 0.95); 
+            long tamanhoMaximo = (long)(tamanhoMaximoEstimado * 0.95); 
             
             System.out.printf("[D] Limite de vetor estimado: %,d elementos (%.2f MB)%n", 
                                 tamanhoMaximoEstimado, tamanhoMaximoEstimado / (1024.0 * 1024.0));
@@ -130,13 +669,13 @@ public class Distribuidor {
 
             while (true) {
                 
-                int vectorSize = tamanhoMaximo; 
+                long vectorSize = tamanhoMaximo; 
                 System.out.printf("[D] Deseja definir um tamanho para o vetor? (Padrão/Máx: %,d) (S/N): ", tamanhoMaximo);
                 String respostaTamanho = scanner.nextLine();
                 if (respostaTamanho.trim().equalsIgnoreCase("S")) {
                     System.out.printf("[D] Digite o tamanho desejado (limite: %,d): ", tamanhoMaximo);
                     try {
-                        int inputSize = Integer.parseInt(scanner.nextLine());
+                        long inputSize = Long.parseLong(scanner.nextLine().trim());
                         if (inputSize > 0 && inputSize <= tamanhoMaximo) {
                             vectorSize = inputSize;
                         } else {
@@ -151,7 +690,7 @@ public class Distribuidor {
                 
                 if (args.length >= 1) { 
                     try { 
-                        int argSize = Integer.parseInt(args[0]);
+                        long argSize = Long.parseLong(args[0]);
                         if (argSize > 0 && argSize <= tamanhoMaximo) {
                             vectorSize = argSize;
                         }
@@ -159,36 +698,57 @@ public class Distribuidor {
                     args = new String[0]; 
                 }
 
-                System.out.printf("[D] Iniciando. Vetor de tamanho %,d%n", vectorSize);
                 Random rnd = new Random();
-
-                byte[] grandeVetor = new byte[vectorSize]; 
-                for (int i = 0; i < vectorSize; i++) {
-                    grandeVetor[i] = (byte)(rnd.nextInt(201) - 100); 
+                VetorSegmentado grandeVetor;
+                long t0Vetor = System.nanoTime();
+                String arquivoVetor = System.getProperty("vetor.arquivo");
+                if (arquivoVetor != null) {
+                    // O arquivo inteiro, ou só o começo se passar do tamanho escolhido
+                    Path caminho = Paths.get(arquivoVetor);
+                    vectorSize = Math.min(vectorSize, Files.size(caminho));
+                    System.out.printf("[D] Iniciando. Vetor de tamanho %,d mapeado de %s%n", vectorSize, caminho);
+                    grandeVetor = VetorSegmentado.mapear(caminho, vectorSize);
+                } else {
+                    // -Dsemente=<n> repete um vetor; sem ela cada execução sorteia a sua
+                    long semente = Long.getLong("semente", rnd.nextLong());
+                    System.out.printf("[D] Iniciando. Vetor de tamanho %,d (semente %d)%n", vectorSize, semente);
+                    grandeVetor = GeradorVetor.gerar(vectorSize, semente);
                 }
+                System.out.printf("[D] Vetor pronto em %.3f ms%n", (System.nanoTime() - t0Vetor) / 1_000_000.0);
+
+                // Identifica o vetor para que os receptores guardem seus shards entre consultas
+                long datasetId;
+                do { datasetId = rnd.nextLong(); } while (datasetId == SEM_CACHE);
 
                 System.out.print("[D] Deseja imprimir o vetor gerado? (S/N): ");
                 String respostaPrint = scanner.nextLine();
                 if (respostaPrint.trim().equalsIgnoreCase("S")) {
+                    byte[] inicioDoVetor = new byte[(int) Math.min(vectorSize, 1000)];
+                    grandeVetor.copiarPara(0, inicioDoVetor, 0, inicioDoVetor.length);
                     if (vectorSize > 1000) {
                         System.out.println("[D] Imprimindo os primeiros 1000 elementos: ");
-                        System.out.println(Arrays.toString(Arrays.copyOf(grandeVetor, 1000)) + "...");
+                        System.out.println(Arrays.toString(inicioDoVetor) + "...");
                     } else {
-                        System.out.println("[D] Vetor: " + Arrays.toString(grandeVetor));
+                        System.out.println("[D] Vetor: " + Arrays.toString(inicioDoVetor));
                     }
                 }
 
-                int pos = rnd.nextInt(vectorSize);
-                byte procuradoAleatorio = grandeVetor[pos];
+                long pos = rnd.nextLong(vectorSize);
+                byte procuradoAleatorio = grandeVetor.get(pos);
                 
                 System.out.printf("\n[D] O número escolhido aleatoriamente é: %d (da posição %d)%n", 
                                     procuradoAleatorio, pos);
                 System.out.println("[D] Pressione ENTER para iniciar a contagem...");
                 scanner.nextLine();
 
-                System.out.println("[D] Iniciando contagem...");
+                System.out.println("[D] Iniciando contagem (histograma completo em uma passada)...");
                 
-                executarContagemDistribuida(grandeVetor, procuradoAleatorio, RECEPTORS, BLOCKS_PER_SERVER);
+                // Uma única rodada traz as 256 contagens; as consultas seguintes não usam a rede.
+                long[] tabela = executarHistogramaDistribuido(grandeVetor, datasetId, RECEPTORS, BLOCKS_PER_SERVER);
+                if (tabela == null) {
+                    System.out.println("[D] Histograma indisponível em algum receptor. Usando contagem por valor.");
+                }
+                consultar(tabela, grandeVetor, datasetId, procuradoAleatorio);
                 
                 System.out.println(String.format("%n" + "-".repeat(30) + "%n")); 
 
@@ -198,12 +758,35 @@ public class Distribuidor {
                     byte procuradoInexistente = (byte) 111;
                     System.out.printf("[D] Iniciando contagem para o número inexistente: %d%n", procuradoInexistente);
                     
-                    executarContagemDistribuida(grandeVetor, procuradoInexistente, RECEPTORS, BLOCKS_PER_SERVER);
+                    consultar(tabela, grandeVetor, datasetId, procuradoInexistente);
+                }
+
+                while (true) {
+                    System.out.print("[D] Consultar outro número (-128 a 127), faixa \"a..b\" (com \" top k\" opcional),"
+                            + " várias separadas por \";\"? (ENTER para seguir): ");
+                    String respostaConsulta = scanner.nextLine().trim();
+                    if (respostaConsulta.isEmpty()) break;
+                    try {
+                        String[] textos = respostaConsulta.split(";");
+                        Agregacao.Consulta[] consultas = new Agregacao.Consulta[textos.length];
+                        for (int i = 0; i < textos.length; i++) {
+                            consultas[i] = Agregacao.Consulta.interpretar(textos[i]);
+                        }
+                        Agregacao.Consulta unica = consultas[0];
+                        if (consultas.length == 1 && unica.minimo == unica.maximo && unica.topK == 0) {
+                            consultar(tabela, grandeVetor, datasetId, unica.minimo);
+                        } else {
+                            consultarAgregados(tabela, grandeVetor, datasetId, consultas);
+                        }
+                    } catch (IllegalArgumentException e) { // inclui NumberFormatException
+                        System.out.println("[D] Entrada inválida: " + e.getMessage());
+                    }
                 }
 
                 System.out.println(String.format("%n" + "=".repeat(40) + "%n"));
                 System.out.print("[D] Deseja realizar uma NOVA CONTAGEM com um NOVO VETOR? (S/N): ");
                 String respostaNovaRodada = scanner.nextLine();
+                esquecerDataset(datasetId);
                 if (!respostaNovaRodada.trim().equalsIgnoreCase("S")) {
                     System.out.println("[D] Encerrando o Distribuidor.");
                     break; 
@@ -213,66 +796,245 @@ public class Distribuidor {
             } // Fim do while(true)
             
         } // Fim do try-with-resources (Scanner)
+        ConexaoReceptor.fecharSessoes();
+        Metricas.pararHttp();
+    }
+
+    /**
+     * Responde a contagem de "procurado" pela tabela do histograma, sem rede.
+     * Se a tabela não existe (receptor sem suporte), faz a rodada de contagem normal.
+     */
+    private static long consultar(long[] tabela, VetorSegmentado grandeVetor, long datasetId, byte procurado) {
+        if (tabela == null) {
+            return executarContagemDistribuida(grandeVetor, datasetId, procurado, RECEPTORS, BLOCKS_PER_SERVER);
+        }
+        long contagem = tabela[procurado & 0xFF];
+        System.out.printf("[D] Resultado (tabela local): número %d ocorreu %d vezes%n", procurado, contagem);
+        return contagem;
+    }
+
+    /**
+     * Responde um lote de consultas agregadas pela tabela do histograma, sem rede.
+     * Sem a tabela, manda o lote inteiro aos receptores numa única rodada.
+     */
+    private static Agregacao.Parcial[] consultarAgregados(long[] tabela, VetorSegmentado grandeVetor, long datasetId,
+                                                          Agregacao.Consulta[] consultas) {
+        Agregacao.Parcial[] resultado = tabela != null
+                ? Agregacao.avaliar(consultas, tabela)
+                : executarAgregacaoDistribuida(grandeVetor, datasetId, consultas, RECEPTORS, BLOCKS_PER_SERVER);
+        if (resultado == null) {
+            System.out.println("[D] Consultas agregadas indisponíveis em algum receptor.");
+            return null;
+        }
+        for (int i = 0; i < consultas.length; i++) {
+            System.out.printf("[D] Resultado%s: %s -> %s%n", tabela != null ? " (tabela local)" : "",
+                    consultas[i], resultado[i]);
+        }
+        return resultado;
     }
 
     /**
      * Método refatorado para executar uma rodada de contagem distribuída.
-     * --- Usando Balanceamento Estático (3 filas) ---
+     * @return A contagem total somada de todos os receptores, ou -1 se algum
+     *         bloco ficou sem resposta (todos os receptores que poderiam contá-lo falharam).
+     */
+    static long executarContagemDistribuida(byte[] grandeVetor, byte procurado, String[] receptors, int blocksPerServer) {
+        return executarContagemDistribuida(VetorSegmentado.de(grandeVetor), SEM_CACHE, procurado, receptors, blocksPerServer);
+    }
+
+    /**
+     * Igual à anterior, mas com o vetor identificado por "datasetId": os receptores
+     * guardam seus shards e as rodadas seguintes sobre o mesmo dataset mandam só
+     * consultas, reenviando dados apenas em cache miss.
+     */
+    static long executarContagemDistribuida(VetorSegmentado grandeVetor, long datasetId, byte procurado,
+                                            String[] receptors, int blocksPerServer) {
+        long t0Total = System.nanoTime();
+        EstadoRodada estado = executarRodada(grandeVetor, datasetId, procurado, false, null, receptors, blocksPerServer);
+        if (!estado.todosConcluidos()) return -1;
+
+        long finalCount = 0;
+        for (ContadorThread t : estado.threads) finalCount += t.getContagemParcial();
+
+        double elapsedMs = (System.nanoTime() - t0Total) / 1_000_000.0;
+        System.out.printf("[D] Resultado final: número %d ocorreu %d vezes (tempo total %.3f ms)%n",
+                procurado, finalCount, elapsedMs);
+        return finalCount;
+    }
+
+    /**
+     * Uma única passada distribuída que devolve as contagens de todos os 256
+     * valores de byte (índice = valor & 0xFF). Qualquer "procurado" pode ser
+     * respondido depois a partir da tabela.
+     * @return A tabela somada, ou null se algum bloco ficou sem resposta (receptores
+     *         fora do ar ou sem suporte a histograma).
      */
-    private static void executarContagemDistribuida(byte[] grandeVetor, byte procurado, String[] receptors, int blocksPerServer) {
-        int vectorSize = grandeVetor.length;
-        int totalServers = receptors.length;
+    static long[] executarHistogramaDistribuido(VetorSegmentado grandeVetor, long datasetId,
+                                                String[] receptors, int blocksPerServer) {
+        long t0Total = System.nanoTime();
+        EstadoRodada estado = executarRodada(grandeVetor, datasetId, (byte) 0, true, null, receptors, blocksPerServer);
+        if (!estado.todosConcluidos()) return null;
+
+        long[] tabela = new long[Histograma.TAMANHO];
+        for (ContadorThread t : estado.threads) {
+            Histograma.somar(tabela, t.getHistogramaParcial());
+        }
+
+        double elapsedMs = (System.nanoTime() - t0Total) / 1_000_000.0;
+        System.out.printf("[D] Histograma final calculado (tempo total %.3f ms)%n", elapsedMs);
+        return tabela;
+    }
+
+    /**
+     * Uma única passada distribuída que responde um lote de consultas agregadas
+     * (igualdade ou faixa; contagem, soma, mínimo, máximo e top-k). Cada
+     * receptor avalia o lote inteiro sobre cada shard e devolve só os parciais.
+     * @return Um resultado por consulta, na ordem de "consultas", ou null se algum
+     *         bloco ficou sem resposta (receptores fora do ar ou sem suporte a agregação).
+     */
+    static Agregacao.Parcial[] executarAgregacaoDistribuida(VetorSegmentado grandeVetor, long datasetId,
+                                                          Agregacao.Consulta[] consultas,
+                                                          String[] receptors, int blocksPerServer) {
+        long t0Total = System.nanoTime();
+        EstadoRodada estado = executarRodada(grandeVetor, datasetId, (byte) 0, false, consultas,
+                receptors, blocksPerServer);
+        if (!estado.todosConcluidos()) return null;
+
+        // começa do resultado vazio: um vetor vazio também tem resposta
+        Agregacao.Parcial[] total = Agregacao.avaliar(consultas, new long[Histograma.TAMANHO]);
+        for (ContadorThread t : estado.threads) {
+            total = Agregacao.combinar(consultas, total, t.getAgregadosParciais());
+        }
+
+        double elapsedMs = (System.nanoTime() - t0Total) / 1_000_000.0;
+        System.out.printf("[D] %d consultas agregadas respondidas em uma passada (tempo total %.3f ms)%n",
+                consultas.length, elapsedMs);
+        return total;
+    }
+
+    /**
+     * Executa uma rodada distribuída e devolve o estado dela, com as threads já terminadas.
+     * --- Usando Balanceamento Dinâmico (pull + roubo de trabalho) ---
+     * Os blocos começam distribuídos em round-robin, um deque por receptor.
+     * Cada thread mantém até JANELA_EM_VOO blocos em voo e, quando sua fila
+     * acaba, rouba do fim da fila mais cheia, então nós lentos não seguram a rodada.
+     * Receptores que falham ou estouram o prazo têm seus blocos reatribuídos,
+     * e blocos lentos são duplicados (hedge) por receptores ociosos.
+     */
+    private static EstadoRodada executarRodada(VetorSegmentado grandeVetor, long datasetId, byte procurado,
+                                                       boolean histograma, Agregacao.Consulta[] consultas,
+                                                       String[] receptors, int blocksPerServer) {
+        EventosContagem.Rodada evento = new EventosContagem.Rodada();
+        evento.begin();
+        long vectorSize = grandeVetor.tamanho();
+        List<String> destinos = destinosDe(receptors);
+        int totalServers = destinos.size();
         
-        int totalBlocks = totalServers * blocksPerServer; 
-        int blockSize = Math.max(1, (vectorSize + totalBlocks - 1) / totalBlocks); 
+        long totalBlocks = (long) totalServers * blocksPerServer; 
+        long blockSize = Math.max(1, (vectorSize + totalBlocks - 1) / totalBlocks); 
 
         System.out.printf("[D] Dividindo em %d blocos de ~%d elementos (blockSize=%d)%n",
                 totalBlocks, blockSize, blockSize);
+        EstadoRodada estado = new EstadoRodada((vectorSize + blockSize - 1) / blockSize);
+
+        List<Deque<Intervalo>> filas = new ArrayList<>();
+        for (int i = 0; i < totalServers; i++) filas.add(new ConcurrentLinkedDeque<>());
 
-        List<BlockingQueue<Intervalo>> queues = new ArrayList<>();
-        for (int i = 0; i < totalServers; i++) queues.add(new LinkedBlockingQueue<>());
+        // Blocos já em cache vão primeiro para a fila do receptor que os tem
+        Map<Long, String> afinidade = afinidadeDo(datasetId);
 
-        int serverIndex = 0;
-        for (int i = 0; i < vectorSize; i += blockSize) {
-            int end = Math.min(vectorSize, i + blockSize);
+        // Os demais são divididos na proporção do orçamento de cada receptor
+        // (round-robin ponderado suave; com pesos iguais vira o round-robin simples)
+        long[] pesos = pesosPorOrcamento(destinos);
+        long somaPesos = 0;
+        for (long p : pesos) somaPesos += p;
+        long[] credito = new long[totalServers];
+
+        for (long i = 0; i < vectorSize; i += blockSize) {
+            long end = Math.min(vectorSize, i + blockSize);
             Intervalo inter = new Intervalo(i, end); 
-            queues.get(serverIndex).add(inter); 
-            serverIndex = (serverIndex + 1) % totalServers;
+            int dono = afinidade != null ? destinos.indexOf(afinidade.get(i)) : -1;
+            if (dono < 0) {
+                dono = 0;
+                for (int s = 0; s < totalServers; s++) {
+                    credito[s] += pesos[s];
+                    if (credito[s] > credito[dono]) dono = s;
+                }
+                credito[dono] -= somaPesos;
+            }
+            filas.get(dono).add(inter);
         }
 
         List<ContadorThread> threads = new ArrayList<>();
-        
-        long t0Total = System.nanoTime();
 
         // 1. Loop para CRIAR e INICIAR as threads
         for (int i = 0; i < totalServers; i++) {
-            String[] parts = receptors[i].split(":");
-            String host = parts[0];
-            int port = (parts.length > 1) ? Integer.parseInt(parts[1]) : 12345;
-            
-            final BlockingQueue<Intervalo> q = queues.get(i);
-            ContadorThread t = new ContadorThread(host, port, q, grandeVetor, procurado);
+            ContadorThread t = new ContadorThread(destinos.get(i), i, filas, JANELA_EM_VOO, grandeVetor, datasetId,
+                    procurado, histograma, consultas, estado);
             
             threads.add(t);
             t.start();
         }
+        estado.threads = threads;
 
-        // 2. Loop para SINCRONIZAR (Thread.join()) e COLETAR resultados
-        int finalCount = 0;
-        for (ContadorThread t : threads) {
-            try {
-                t.join(); // <-- Usa Thread.join()
-                finalCount += t.getContagemParcial();
-                 
-            } catch (InterruptedException e) {
-                System.err.println("[D] Thread principal interrompida enquanto esperava: " + e.getMessage());
+        // 2. Loop para SINCRONIZAR (Thread.join()), com a thread principal de watchdog:
+        // requisição além do prazo derruba a conexão (os blocos vão para os outros), e
+        // com todos os blocos respondidos ninguém espera respostas duplicadas atrasadas.
+        // Long.MAX_VALUE é "sem prazo": nanoTime pode ser negativo, e aí "agora - MAX_VALUE"
+        // transborda para positivo, então o sentinela é testado antes da diferença
+        long abandonarEm = Long.MAX_VALUE;
+        try {
+            while (true) {
+                ContadorThread viva = null;
+                long agora = System.nanoTime();
+                for (ContadorThread t : threads) {
+                    if (!t.isAlive()) continue;
+                    viva = t;
+                    long prazo = t.prazo;
+                    if (prazo != Long.MAX_VALUE && agora - prazo > 0) t.abortar("requisição além do prazo de " + PRAZO_NANOS / 1_000_000 + " ms");
+                }
+                if (viva == null) break;
+                if (estado.todosConcluidos()) {
+                    if (abandonarEm == Long.MAX_VALUE) {
+                        abandonarEm = agora + TOLERANCIA_ENCERRAMENTO_NANOS;
+                    }
+                    if (abandonarEm != Long.MAX_VALUE && agora - abandonarEm > 0) {
+                        for (ContadorThread t : threads) {
+                            if (t.isAlive()) t.soltar();
+                        }
+                    }
+                }
+                viva.join(INTERVALO_WATCHDOG_MS); // <-- Usa Thread.join()
             }
+        } catch (InterruptedException e) {
+            System.err.println("[D] Thread principal interrompida enquanto esperava: " + e.getMessage());
         }
 
-        long t1Total = System.nanoTime();
-        double elapsedMs = (t1Total - t0Total) / 1_000_000.0;
+        System.out.printf("%n[D] %-22s %8s %8s %8s %8s %12s %12s %10s%n",
+                "Receptor", "Blocos", "Roubados", "Cache", "Hedge", "MB", "Tempo (ms)", "MB/s");
+        for (ContadorThread t : threads) {
+            System.out.println("[D] " + t.linhaRelatorio());
+        }
+        // Onde foi o tempo: cópia e envio são do Distribuidor; a espera inclui rede, fila e contagem no receptor
+        System.out.printf("[D] %-22s %10s %10s %12s %12s %12s %12s%n",
+                "Fases", "Cópia (ms)", "Envio (ms)", "Espera (ms)", "Esp. máx", "Enviado MB", "Recebido KB");
+        for (ContadorThread t : threads) {
+            System.out.println("[D] " + t.linhaFases());
+        }
 
-        System.out.printf("[D] Resultado final: número %d ocorreu %d vezes (tempo total %.3f ms)%n",
-                procurado, finalCount, elapsedMs);
+        if (evento.shouldCommit()) {
+            evento.histograma = histograma;
+            evento.procurado = procurado;
+            evento.receptores = totalServers;
+            evento.blocos = totalBlocks;
+            evento.elementos = vectorSize;
+            evento.commit();
+        }
+        Metricas.contador("distribuidor_rodadas").increment();
+        if (!estado.todosConcluidos()) {
+            System.err.printf("[D] Rodada incompleta: %d blocos sem resposta (nenhum receptor disponível).%n",
+                    estado.blocosSemResposta());
+        }
+        return estado;
     }
 }
\ No newline at end of file
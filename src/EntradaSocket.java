@@ -0,0 +1,120 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+
+/**
+ * Entrada de uma conexão do receptor, lida pelo canal do socket para um
+ * buffer fora do heap. Cabeçalhos e payloads pequenos passam pelo buffer
+ * como num BufferedInputStream; os dados de um chunk vão com lerPara() direto
+ * para o buffer de recepção, sem passar por um byte[] no caminho.
+ *
+ * Sockets sem canal (aceitos por um ServerSocket criado com new, ver
+ * ReceptorServer.abrirServidor) são lidos pelo stream, com uma cópia a mais.
+ * Não usa Channels.newChannel(InputStream) para isso: ele lê dentro de um
+ * synchronized, que prende a thread portadora da thread virtual da conexão.
+ * Usada só pela thread da conexão.
+ */
+final class EntradaSocket extends InputStream {
+
+    private final SocketChannel canal; // null: socket sem canal, lido por "stream"
+    private final InputStream stream;
+    private final byte[] rascunho;      // só sem canal
+    // Entre position e limit: bytes já lidos do socket e ainda não consumidos
+    private final ByteBuffer buffer;
+
+    EntradaSocket(Socket socket, int tamanhoBuffer) throws IOException {
+        this.canal = socket.getChannel();
+        this.stream = canal != null ? null : socket.getInputStream();
+        this.rascunho = canal != null ? null : new byte[tamanhoBuffer];
+        this.buffer = ByteBuffer.allocateDirect(tamanhoBuffer).flip();
+    }
+
+    /** Uma leitura do socket para "destino", como ReadableByteChannel.read. */
+    private int ler(ByteBuffer destino) throws IOException {
+        if (canal != null) return canal.read(destino);
+        int n = stream.read(rascunho, 0, Math.min(rascunho.length, destino.remaining()));
+        if (n > 0) destino.put(rascunho, 0, n);
+        return n;
+    }
+
+    /** Lê mais do socket, mantendo o que ainda não foi consumido; false no fim do stream. */
+    private boolean encher() throws IOException {
+        buffer.compact();
+        int n;
+        try {
+            n = ler(buffer);
+        } finally {
+            buffer.flip();
+        }
+        return n > 0;
+    }
+
+    /** Os próximos 4 bytes como int, sem consumi-los (para escolher o protocolo). */
+    int espiarInt() throws IOException {
+        while (buffer.remaining() < 4) {
+            if (!encher()) throw new EOFException();
+        }
+        return buffer.getInt(buffer.position());
+    }
+
+    /**
+     * Enche os bytes restantes de "destino": primeiro com o que já está no
+     * buffer, depois direto do canal.
+     * @throws EOFException se a conexão acaba antes.
+     */
+    void lerPara(ByteBuffer destino) throws IOException {
+        if (buffer.hasRemaining()) {
+            int n = Math.min(destino.remaining(), buffer.remaining());
+            int limite = buffer.limit();
+            buffer.limit(buffer.position() + n);
+            destino.put(buffer);
+            buffer.limit(limite);
+        }
+        while (destino.hasRemaining()) {
+            if (ler(destino) < 0) throw new EOFException();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !encher()) return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) return 0;
+        if (!buffer.hasRemaining() && !encher()) return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || (!buffer.hasRemaining() && !encher())) return 0;
+        int pulados = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + pulados);
+        return pulados;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /** Fecha o socket, como fechar o InputStream dele. */
+    @Override
+    public void close() throws IOException {
+        if (canal != null) {
+            canal.close();
+        } else {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Eventos JFR das rodadas de contagem. Com a gravação ligada
+ * (java -XX:StartFlightRecording=filename=contagem.jfr ...) cada bloco e
+ * cada lote aparecem no JDK Mission Control com a duração de cada fase;
+ * desligada, o custo é só o de shouldCommit().
+ */
+public final class EventosContagem {
+
+    private EventosContagem() {}
+
+    /** Distribuidor: um bloco, do envio do primeiro byte até a Resposta. */
+    @Name("contador.Bloco")
+    @Label("Bloco enviado")
+    @Category({ "Contador", "Distribuidor" })
+    public static final class Bloco extends Event {
+        @Label("Receptor") public String receptor;
+        @Label("Início") public long inicio;
+        @Label("Fim") public long fim;
+        @Label("Enviados") @DataAmount public long bytesEnviados;
+        @Label("Do cache") public boolean doCache;
+        @Label("Cópia") @Description("Cópia dos dados para o buffer de envio ou para o Pedido")
+        @Timespan public long copiaNanos;
+        @Label("Envio") @Description("Escrita no socket, incluindo serialização no protocolo legado")
+        @Timespan public long envioNanos;
+    }
+
+    /** Distribuidor: uma rodada inteira (contagem ou histograma). */
+    @Name("contador.Rodada")
+    @Label("Rodada distribuída")
+    @Category({ "Contador", "Distribuidor" })
+    public static final class Rodada extends Event {
+        @Label("Histograma") public boolean histograma;
+        @Label("Procurado") public byte procurado;
+        @Label("Receptores") public int receptores;
+        @Label("Blocos") public long blocos;
+        @Label("Elementos") @DataAmount public long elementos;
+    }
+
+    /** Receptor: um lote, do primeiro quadro até a Resposta enviada. */
+    @Name("contador.Lote")
+    @Label("Lote no receptor")
+    @Category({ "Contador", "Receptor" })
+    public static final class Lote extends Event {
+        @Label("Id da requisição") public int requestId;
+        @Label("Chunks") public int chunks;
+        @Label("Recebidos") @DataAmount public long bytes;
+        @Label("Histograma") public boolean histograma;
+        @Label("Do cache") public boolean doCache;
+        @Label("Recepção") @Description("Leitura dos dados do socket")
+        @Timespan public long recepcaoNanos;
+        @Label("Admissão") @Description("Espera por vaga no pool (back-pressure)")
+        @Timespan public long admissaoNanos;
+        @Label("Fila") @Description("Soma do tempo dos chunks na fila do pool")
+        @Timespan public long filaNanos;
+        @Label("Contagem") @Description("Soma do tempo de CPU dos chunks no pool")
+        @Timespan public long contagemNanos;
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gerador de carga sem interação: roda o caminho distribuído completo
+ * (Distribuidor.executarContagemDistribuida e as variantes de histograma e
+ * agregação) muitas vezes, com vários tamanhos de vetor e vários fluxos de
+ * consulta simultâneos, e grava latência (percentis, ver HistogramaLatencia)
+ * e vazão de cada combinação num CSV.
+ *
+ * Sem "receptores", sobe ReceptorServer no próprio processo, em loopback,
+ * então a carga inteira (sockets, protocolo, pool do receptor) roda numa
+ * máquina só. Cada fluxo faz "aquecimento" rodadas que não entram na medição;
+ * a medição começa com todos os fluxos juntos.
+ *
+ * Uso: java [-Dcarga.<chave>=<valor> ...] GeradorCarga [arquivo.properties]
+ * As chaves podem vir do arquivo (sem o prefixo "carga.") ou de -Dcarga.<chave>,
+ * que vence o arquivo:
+ *   receptores   lista como a do Distribuidor ("host:port,local:2,...")
+ *   loopback     receptores em loopback a subir quando não há "receptores" (padrão 2)
+ *   tamanhos     tamanhos de vetor, com sufixo K, M ou G opcional (padrão 1M,16M)
+ *   fluxos       quantidades de fluxos simultâneos a testar (padrão 1,4)
+ *   tipos        contagem, histograma e/ou agregacao (padrão contagem)
+ *   aquecimento  rodadas por fluxo antes de medir (padrão 3)
+ *   rodadas      rodadas medidas por fluxo (padrão 20)
+ *   blocos       blocos por receptor em cada rodada (padrão 8)
+ *   cache        true: os receptores guardam os shards entre rodadas (padrão false)
+ *   semente      semente do vetor e dos valores procurados (padrão 42)
+ *   csv          arquivo de saída (padrão carga.csv)
+ */
+public class GeradorCarga {
+
+    private static final PrintStream SAIDA = System.out;
+    private static final PrintStream SILENCIO = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final String CABECALHO_CSV = "tamanho,fluxos,tipo,rodadas,erros,segundos,rodadas_por_s,gb_por_s,"
+            + "media_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+
+    // Lote fixo para o tipo "agregacao": igualdade, faixa e top-k
+    private static final Agregacao.Consulta[] CONSULTAS = {
+        Agregacao.Consulta.igual((byte) 7),
+        Agregacao.Consulta.faixa((byte) -10, (byte) 10),
+        Agregacao.Consulta.faixa((byte) 50, (byte) 100).comTopK(5),
+        Agregacao.Consulta.faixa(Byte.MIN_VALUE, Byte.MAX_VALUE).comTopK(3),
+    };
+
+    // Quanto a medição espera os fluxos terminarem o aquecimento
+    private static final long LARGADA_MAXIMA_MINUTOS = 10;
+
+    /** Uma rodada de um fluxo; false se ela ficou sem resposta. */
+    interface Rodada {
+        boolean executar(byte procurado);
+    }
+
+    private final Properties config;
+
+    private GeradorCarga(Properties config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties arquivo = new Properties();
+        if (args.length >= 1) {
+            try (Reader in = Files.newBufferedReader(Paths.get(args[0]))) {
+                arquivo.load(in);
+            }
+        }
+        GeradorCarga gerador = new GeradorCarga(arquivo);
+        int codigo;
+        try {
+            codigo = gerador.executar();
+        } finally {
+            ConexaoReceptor.fecharSessoes();
+        }
+        System.exit(codigo); // receptores em loopback ficam presos no accept
+    }
+
+    private String valor(String chave, String padrao) {
+        return System.getProperty("carga." + chave, config.getProperty(chave, padrao)).trim();
+    }
+
+    private List<String> lista(String chave, String padrao) {
+        List<String> itens = new ArrayList<>();
+        for (String item : valor(chave, padrao).split(",")) {
+            if (!item.isBlank()) itens.add(item.trim());
+        }
+        return itens;
+    }
+
+    /** "16M" -> 16 * 1024 * 1024. */
+    static long tamanho(String texto) {
+        String t = texto.trim().toUpperCase(Locale.ROOT);
+        long multiplicador = 1;
+        switch (t.charAt(t.length() - 1)) {
+            case 'K' -> multiplicador = 1L << 10;
+            case 'M' -> multiplicador = 1L << 20;
+            case 'G' -> multiplicador = 1L << 30;
+            default -> { }
+        }
+        if (multiplicador > 1) t = t.substring(0, t.length() - 1);
+        return Long.parseLong(t) * multiplicador;
+    }
+
+    /** @return o código de saída: 0, ou 1 se alguma rodada ficou sem resposta. */
+    private int executar() throws Exception {
+        String[] receptores = receptores();
+        List<Long> tamanhos = new ArrayList<>();
+        for (String t : lista("tamanhos", "1M,16M")) tamanhos.add(tamanho(t));
+        List<Integer> fluxos = new ArrayList<>();
+        for (String f : lista("fluxos", "1,4")) fluxos.add(Integer.parseInt(f));
+        List<String> tipos = lista("tipos", "contagem");
+        for (String tipo : tipos) {
+            if (!tipo.equals("contagem") && !tipo.equals("histograma") && !tipo.equals("agregacao")) {
+                throw new IllegalArgumentException("Tipo de consulta desconhecido: " + tipo);
+            }
+        }
+        int aquecimento = Integer.parseInt(valor("aquecimento", "3"));
+        int rodadas = Integer.parseInt(valor("rodadas", "20"));
+        int blocos = Integer.parseInt(valor("blocos", "8"));
+        boolean cache = Boolean.parseBoolean(valor("cache", "false"));
+        long semente = Long.parseLong(valor("semente", "42"));
+        Path csv = Paths.get(valor("csv", "carga.csv"));
+
+        SAIDA.printf("[Carga] Receptores: %s%n", String.join(", ", receptores));
+        SAIDA.printf("[Carga] %d rodadas medidas por fluxo após %d de aquecimento, %d blocos por receptor, cache %s%n",
+                rodadas, aquecimento, blocos, cache ? "ligado" : "desligado");
+        SAIDA.printf("[Carga] %12s %6s %-10s %8s %8s %10s %9s %9s %9s %9s %9s%n", "Tamanho", "Fluxos", "Tipo",
+                "Rod/s", "GB/s", "Média ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Máx ms");
+
+        List<String> linhas = new ArrayList<>();
+        linhas.add(CABECALHO_CSV);
+        long errosTotal = 0;
+        for (long tamanho : tamanhos) {
+            VetorSegmentado vetor = GeradorVetor.gerar(tamanho, semente);
+            // um id por vetor; "| 1" garante que nunca é SEM_CACHE (0)
+            long datasetId = cache ? (semente * 31 + tamanho) | 1 : Distribuidor.SEM_CACHE;
+            for (int f : fluxos) {
+                for (String tipo : tipos) {
+                    Rodada rodada = rodada(tipo, vetor, datasetId, receptores, blocos);
+                    HistogramaLatencia latencias = new HistogramaLatencia();
+                    AtomicLong erros = new AtomicLong();
+                    long nanos = medir(rodada, f, aquecimento, rodadas, semente, latencias, erros);
+
+                    double segundos = nanos / 1e9;
+                    long ok = latencias.getQuantidade() - erros.get();
+                    double porSegundo = latencias.getQuantidade() / segundos;
+                    double gbps = tamanho * (double) ok / nanos;
+                    errosTotal += erros.get();
+                    SAIDA.printf("[Carga] %12s %6d %-10s %8.1f %8.3f %10.3f %9.3f %9.3f %9.3f %9.3f %9.3f%s%n",
+                            String.format("%,d", tamanho), f, tipo, porSegundo, gbps,
+                            latencias.getMediaNanos() / 1e6, ms(latencias.percentil(50)), ms(latencias.percentil(90)),
+                            ms(latencias.percentil(99)), ms(latencias.percentil(99.9)), ms(latencias.getMaximoNanos()),
+                            erros.get() > 0 ? "  (" + erros.get() + " sem resposta)" : "");
+                    linhas.add(String.format(Locale.ROOT, "%d,%d,%s,%d,%d,%.3f,%.2f,%.4f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                            tamanho, f, tipo, latencias.getQuantidade(), erros.get(), segundos, porSegundo, gbps,
+                            latencias.getMediaNanos() / 1e6, ms(latencias.percentil(50)), ms(latencias.percentil(90)),
+                            ms(latencias.percentil(99)), ms(latencias.percentil(99.9)), ms(latencias.getMaximoNanos())));
+                }
+            }
+        }
+        Files.write(csv, linhas);
+        SAIDA.println("[Carga] Resultados gravados em " + csv);
+        if (errosTotal > 0) {
+            SAIDA.printf("[Carga] %d rodadas ficaram sem resposta.%n", errosTotal);
+            return 1;
+        }
+        return 0;
+    }
+
+    /** Os receptores configurados, ou novos ReceptorServer em loopback. */
+    private String[] receptores() throws IOException {
+        List<String> configurados = lista("receptores", "");
+        if (!configurados.isEmpty()) {
+            return configurados.toArray(new String[0]);
+        }
+        String[] receptores = new String[Integer.parseInt(valor("loopback", "2"))];
+        for (int i = 0; i < receptores.length; i++) {
+            ServerSocket serverSocket = ReceptorServer.abrirServidor(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread servidor = new Thread(() -> {
+                try {
+                    ReceptorServer.servir(serverSocket);
+                } catch (IOException e) {
+                    System.err.println("[Carga] Receptor encerrado: " + e.getMessage());
+                }
+            });
+            servidor.setDaemon(true);
+            servidor.start();
+            receptores[i] = "127.0.0.1:" + serverSocket.getLocalPort();
+        }
+        return receptores;
+    }
+
+    private static Rodada rodada(String tipo, VetorSegmentado vetor, long datasetId, String[] receptores, int blocos) {
+        return switch (tipo) {
+            case "histograma" -> procurado ->
+                    Distribuidor.executarHistogramaDistribuido(vetor, datasetId, receptores, blocos) != null;
+            case "agregacao" -> procurado ->
+                    Distribuidor.executarAgregacaoDistribuida(vetor, datasetId, CONSULTAS, receptores, blocos) != null;
+            default -> procurado ->
+                    Distribuidor.executarContagemDistribuida(vetor, datasetId, procurado, receptores, blocos) >= 0;
+        };
+    }
+
+    /**
+     * "fluxos" threads, cada uma com "aquecimento" rodadas descartadas e
+     * "rodadas" medidas. Os logs [D]/[R] ficam desligados durante a medição.
+     * Se algum fluxo não chega à largada em LARGADA_MAXIMA_MINUTOS, a barreira
+     * quebra (os demais fluxos saem) e a medição falha em vez de travar.
+     * @return nanossegundos do início conjunto da medição até o fim do último fluxo.
+     */
+    private static long medir(Rodada rodada, int fluxos, int aquecimento, int rodadas, long semente,
+                              HistogramaLatencia latencias, AtomicLong erros) throws Exception {
+        CyclicBarrier largada = new CyclicBarrier(fluxos + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int f = 0; f < fluxos; f++) {
+            SplittableRandom rnd = new SplittableRandom(semente + f);
+            Thread t = new Thread(() -> {
+                try {
+                    for (int i = 0; i < aquecimento; i++) {
+                        try {
+                            rodada.executar((byte) (rnd.nextInt(201) - 100));
+                        } catch (RuntimeException e) {
+                            // fora da medição; o fluxo segue para a largada
+                        }
+                    }
+                    largada.await();
+                    for (int i = 0; i < rodadas; i++) {
+                        long t0 = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = rodada.executar((byte) (rnd.nextInt(201) - 100));
+                        } catch (RuntimeException e) {
+                            ok = false;
+                        }
+                        latencias.registrar(System.nanoTime() - t0);
+                        if (!ok) erros.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    System.err.println("[Carga] Fluxo interrompido: " + e);
+                }
+            }, "carga-fluxo-" + f);
+            threads.add(t);
+        }
+        System.setOut(SILENCIO);
+        try {
+            for (Thread t : threads) t.start();
+            try {
+                largada.await(LARGADA_MAXIMA_MINUTOS, TimeUnit.MINUTES);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Fluxos sem chegar à largada em "
+                        + LARGADA_MAXIMA_MINUTOS + " min", e);
+            }
+            long t0 = System.nanoTime();
+            for (Thread t : threads) t.join();
+            return System.nanoTime() - t0;
+        } finally {
+            System.setOut(SAIDA);
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Preenche o vetor com valores em -100..100 (a mesma distribuição de
+ * Random.nextInt(201) - 100 usada antes), em paralelo e de forma reproduzível.
+ *
+ * O vetor é dividido em blocos fixos de BLOCO bytes. Cada bloco tem o seu
+ * SplittableRandom, tirado com split() de um gerador raiz na ordem dos
+ * blocos, então o conteúdo depende só da semente e do tamanho: o número de
+ * threads só muda quem gera cada bloco. Os blocos são gerados no
+ * ForkJoinPool.commonPool().
+ *
+ * Uso: java GeradorVetor <arquivo> <tamanho> [semente]
+ * grava um dataset para o Distribuidor carregar com -Dvetor.arquivo.
+ */
+public final class GeradorVetor {
+
+    public static final int BLOCO = 1 << 20;
+
+    // Rascunho por thread: o bloco é gerado aqui e copiado de uma vez para o vetor
+    private static final ThreadLocal<byte[]> RASCUNHO = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private GeradorVetor() {}
+
+    /** Um vetor novo, fora do heap, preenchido a partir de "semente". */
+    public static VetorSegmentado gerar(long tamanho, long semente) {
+        VetorSegmentado vetor = VetorSegmentado.alocar(tamanho);
+        preencher(vetor, semente);
+        return vetor;
+    }
+
+    /** Mesmo conteúdo que preencher(VetorSegmentado.de(vetor), semente). */
+    public static void preencher(byte[] vetor, long semente) {
+        preencher(VetorSegmentado.de(vetor), semente);
+    }
+
+    public static void preencher(VetorSegmentado vetor, long semente) {
+        long tamanho = vetor.tamanho();
+        int blocos = (int) ((tamanho + BLOCO - 1) / BLOCO);
+        SplittableRandom raiz = new SplittableRandom(semente);
+        SplittableRandom[] geradores = new SplittableRandom[blocos];
+        for (int b = 0; b < blocos; b++) {
+            geradores[b] = raiz.split();
+        }
+        IntStream.range(0, blocos).parallel().forEach(b -> {
+            long inicio = (long) b * BLOCO;
+            preencherBloco(vetor, inicio, (int) Math.min(BLOCO, tamanho - inicio), geradores[b]);
+        });
+    }
+
+    private static void preencherBloco(VetorSegmentado vetor, long inicio, int len, SplittableRandom rnd) {
+        byte[] rascunho = RASCUNHO.get();
+        for (int feito = 0; feito < len; ) {
+            int n = Math.min(rascunho.length, len - feito);
+            for (int j = 0; j < n; j++) {
+                rascunho[j] = (byte)(rnd.nextInt(201) - 100);
+            }
+            vetor.copiarDe(rascunho, 0, inicio + feito, n);
+            feito += n;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: java GeradorVetor <arquivo> <tamanho> [semente]");
+            System.exit(2);
+        }
+        Path arquivo = Paths.get(args[0]);
+        long tamanho = Long.parseLong(args[1]);
+        long semente = args.length >= 3 ? Long.parseLong(args[2]) : 42;
+
+        long t0 = System.nanoTime();
+        VetorSegmentado vetor = VetorSegmentado.criarArquivo(arquivo, tamanho);
+        preencher(vetor, semente);
+        System.out.printf("[Gerador] %,d bytes gravados em %s (semente %d, %.3f ms)%n",
+                tamanho, arquivo, semente, (System.nanoTime() - t0) / 1_000_000.0);
+    }
+}
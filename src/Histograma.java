@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Histograma de 256 posições (uma por valor de byte) calculado numa única
+ * passada. Com ele qualquer número de consultas por "procurado" é respondido
+ * sem reenviar nem reler o vetor.
+ */
+public final class Histograma {
+
+    public static final int TAMANHO = 256;
+
+    private Histograma() {}
+
+    /**
+     * Soma em "destino" a contagem de cada valor da fatia.
+     * Usa 4 tabelas intercaladas para que bytes vizinhos iguais não
+     * serializem o incremento na mesma posição de memória.
+     */
+    public static void acumular(byte[] numeros, int inicio, int len, int[] destino) {
+        int[] h0 = new int[TAMANHO];
+        int[] h1 = new int[TAMANHO];
+        int[] h2 = new int[TAMANHO];
+        int[] h3 = new int[TAMANHO];
+        int i = inicio;
+        int fim = inicio + len;
+        for (int fim4 = inicio + (len & ~3); i < fim4; i += 4) {
+            h0[numeros[i] & 0xFF]++;
+            h1[numeros[i + 1] & 0xFF]++;
+            h2[numeros[i + 2] & 0xFF]++;
+            h3[numeros[i + 3] & 0xFF]++;
+        }
+        for (; i < fim; i++) {
+            h0[numeros[i] & 0xFF]++;
+        }
+        for (int v = 0; v < TAMANHO; v++) {
+            destino[v] += h0[v] + h1[v] + h2[v] + h3[v];
+        }
+    }
+
+    /**
+     * Igual a acumular(byte[]...), sobre os bytes restantes de "dados" (sem
+     * alterar a posição). Buffers diretos são lidos no lugar.
+     */
+    public static void acumular(ByteBuffer dados, int[] destino) {
+        if (dados.hasArray()) {
+            acumular(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining(), destino);
+            return;
+        }
+        int[] h0 = new int[TAMANHO];
+        int[] h1 = new int[TAMANHO];
+        int i = dados.position();
+        int fim = dados.limit();
+        for (int fim2 = i + ((fim - i) & ~1); i < fim2; i += 2) {
+            h0[dados.get(i) & 0xFF]++;
+            h1[dados.get(i + 1) & 0xFF]++;
+        }
+        for (; i < fim; i++) {
+            h0[dados.get(i) & 0xFF]++;
+        }
+        for (int v = 0; v < TAMANHO; v++) {
+            destino[v] += h0[v] + h1[v];
+        }
+    }
+
+    /** Soma "origem" em "destino", posição a posição. */
+    public static void somar(long[] destino, int[] origem) {
+        for (int v = 0; v < TAMANHO; v++) {
+            destino[v] += origem[v];
+        }
+    }
+
+    public static void somar(long[] destino, long[] origem) {
+        for (int v = 0; v < TAMANHO; v++) {
+            destino[v] += origem[v];
+        }
+    }
+}
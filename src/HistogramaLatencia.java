@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências no estilo do HdrHistogram: faixas logarítmicas
+ * (uma por potência de 2) divididas em SUBFAIXAS partes iguais, então o erro
+ * relativo de qualquer percentil fica abaixo de 1/SUBFAIXAS (&lt; 1%), com
+ * memória fixa e sem guardar as amostras. Pode ser alimentado por várias
+ * threads ao mesmo tempo.
+ *
+ * Cobre de 1 ns a 2^63 ns; valores abaixo de 1 contam como 1.
+ */
+public final class HistogramaLatencia {
+
+    private static final int BITS_SUBFAIXA = 7;
+    private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA; // 128
+
+    // Faixa 0: [0, SUBFAIXAS) exato; faixa f > 0: [SUBFAIXAS << (f-1), SUBFAIXAS << f), passo 1 << (f-1)
+    private final AtomicLongArray contagens = new AtomicLongArray((64 - BITS_SUBFAIXA + 1) * SUBFAIXAS);
+    private final LongAdder quantidade = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator minimo = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    public void registrar(long nanos) {
+        nanos = Math.max(1, nanos);
+        contagens.incrementAndGet(indice(nanos));
+        quantidade.increment();
+        totalNanos.add(nanos);
+        minimo.accumulate(nanos);
+        maximo.accumulate(nanos);
+    }
+
+    private static int indice(long valor) {
+        int faixa = Math.max(0, 64 - Long.numberOfLeadingZeros(valor) - BITS_SUBFAIXA);
+        int sub = (int) (faixa == 0 ? valor : (valor >>> (faixa - 1)) - SUBFAIXAS);
+        return faixa * SUBFAIXAS + sub;
+    }
+
+    /** Maior valor que cai na mesma posição do índice (o percentil é arredondado para cima). */
+    private static long valorMaximo(int indice) {
+        int faixa = indice / SUBFAIXAS;
+        long sub = indice % SUBFAIXAS;
+        if (faixa == 0) return sub;
+        long passo = 1L << (faixa - 1);
+        return ((SUBFAIXAS + sub) << (faixa - 1)) + passo - 1;
+    }
+
+    public long getQuantidade() {
+        return quantidade.sum();
+    }
+
+    public double getMediaNanos() {
+        long n = quantidade.sum();
+        return n == 0 ? Double.NaN : totalNanos.sum() / (double) n;
+    }
+
+    public long getMinimoNanos() {
+        return quantidade.sum() == 0 ? 0 : minimo.get();
+    }
+
+    public long getMaximoNanos() {
+        return maximo.get();
+    }
+
+    /**
+     * Latência abaixo da qual ficam "p" por cento das amostras (ex.: 99.9).
+     * Nunca passa do máximo observado; 0 sem amostras.
+     */
+    public long percentil(double p) {
+        long n = quantidade.sum();
+        if (n == 0) return 0;
+        long alvo = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long acumulado = 0;
+        for (int i = 0; i < contagens.length(); i++) {
+            acumulado += contagens.get(i);
+            if (acumulado >= alvo) return Math.min(valorMaximo(i), getMaximoNanos());
+        }
+        return getMaximoNanos();
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingestão incremental: em vez de descartar o vetor e recontar tudo a cada
+ * rodada, o Distribuidor manda aos receptores só o que mudou (bytes anexados
+ * no fim e trechos sobrescritos), e cada receptor mantém as contagens da sua
+ * parte em dia (DatasetVivo). Uma contagem sobre o dataset em mudança custa
+ * uma consulta pequena por receptor, respondida sem reler os dados.
+ *
+ * As posições do dataset são divididas em faixas de FAIXA bytes
+ * (-Dingestao.faixa.mb, padrão 4) e a faixa k pertence ao receptor k % n, na
+ * ordem da lista; toda escrita de uma faixa vai para o dono dela. Não há
+ * réplica: se um receptor cai, as faixas dele se perdem e o feed precisa ser
+ * reaplicado.
+ *
+ * Uso (demonstração): java Ingestao [bytes] [receptor...]
+ * anexa "bytes" em blocos, sobrescreve trechos no caminho e confere cada
+ * contagem mantida com uma contagem local.
+ */
+public final class Ingestao implements Closeable {
+
+    // Múltiplo de DatasetVivo.PAGINA: uma faixa nunca começa no meio de uma página do receptor
+    public static final int FAIXA = Math.max(1, Integer.getInteger("ingestao.faixa.mb", 4)) * DatasetVivo.PAGINA;
+
+    private static final LongAdder BYTES_INGERIDOS = Metricas.contador("ingestao_bytes");
+    private static final Metricas.Temporizador TEMPO_CONSULTA = Metricas.tempo("ingestao_consulta");
+
+    private final long datasetId;
+    private final String[] destinos;
+    private final CanalReceptor[] canais;
+    private long tamanho;
+
+    private Ingestao(long datasetId, String[] destinos, CanalReceptor[] canais) {
+        this.datasetId = datasetId;
+        this.destinos = destinos;
+        this.canais = canais;
+    }
+
+    /**
+     * Abre um canal com cada receptor para o dataset "datasetId" (vazio no início).
+     * @throws IOException se algum receptor não responde ou não suporta ingestão.
+     */
+    public static Ingestao abrir(long datasetId, String[] receptors) throws IOException {
+        List<String> lista = Distribuidor.destinosDe(receptors);
+        String[] destinos = lista.toArray(new String[0]);
+        CanalReceptor[] canais = new CanalReceptor[destinos.length];
+        try {
+            for (int i = 0; i < destinos.length; i++) {
+                canais[i] = CanalReceptor.abrir(destinos[i]);
+                if (!canais[i].suportaIngestao()) {
+                    throw new IOException(destinos[i] + " não suporta ingestão incremental");
+                }
+            }
+        } catch (IOException e) {
+            for (CanalReceptor c : canais) {
+                if (c != null) c.close();
+            }
+            throw e;
+        }
+        return new Ingestao(datasetId, destinos, canais);
+    }
+
+    public synchronized long tamanho() {
+        return tamanho;
+    }
+
+    /** Anexa dados[off, off + len) no fim do dataset. */
+    public synchronized void anexar(byte[] dados, int off, int len) throws IOException {
+        escrever(tamanho, dados, off, len);
+        tamanho += len;
+    }
+
+    /**
+     * Sobrescreve [posicao, posicao + len) com dados[off, off + len).
+     * @throws IndexOutOfBoundsException se o trecho passa do fim do dataset.
+     */
+    public synchronized void atualizar(long posicao, byte[] dados, int off, int len) throws IOException {
+        if (posicao < 0 || posicao + len > tamanho) {
+            throw new IndexOutOfBoundsException("Trecho [" + posicao + ", " + (posicao + len)
+                    + ") fora do dataset de " + tamanho + " bytes");
+        }
+        escrever(posicao, dados, off, len);
+    }
+
+    /** Divide a escrita nas fronteiras de faixa e manda cada pedaço ao dono. */
+    private void escrever(long posicao, byte[] dados, int off, int len) throws IOException {
+        while (len > 0) {
+            long faixa = posicao / FAIXA;
+            int n = (int) Math.min(len, (faixa + 1) * FAIXA - posicao);
+            canais[(int) (faixa % canais.length)].ingerir(datasetId, posicao, dados, off, n);
+            BYTES_INGERIDOS.add(n);
+            posicao += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Quantas vezes "procurado" aparece hoje no dataset, das contagens mantidas. */
+    public synchronized long contar(byte procurado) throws IOException {
+        long t0 = System.nanoTime();
+        // todas as consultas saem antes de esperar a primeira resposta
+        for (CanalReceptor c : canais) c.consultarMantida(datasetId, procurado, false);
+        long total = 0;
+        for (CanalReceptor c : canais) total += receber(c).contagem;
+        TEMPO_CONSULTA.registrar(System.nanoTime() - t0);
+        return total;
+    }
+
+    /** A tabela de contagens do dataset inteiro (índice = valor & 0xFF). */
+    public synchronized long[] histograma() throws IOException {
+        long t0 = System.nanoTime();
+        for (CanalReceptor c : canais) c.consultarMantida(datasetId, (byte) 0, true);
+        long[] tabela = new long[Histograma.TAMANHO];
+        for (CanalReceptor c : canais) Histograma.somar(tabela, receber(c).histograma);
+        TEMPO_CONSULTA.registrar(System.nanoTime() - t0);
+        return tabela;
+    }
+
+    private static CanalReceptor.RespostaRecebida receber(CanalReceptor c) throws IOException {
+        try {
+            return c.receberResposta();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e); // só o legado desserializa, e ele não chega aqui
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (CanalReceptor c : canais) {
+            try {
+                c.encerrar();
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long total = 64L << 20;
+        if (args.length >= 1) {
+            try { total = Long.parseLong(args[0]); } catch (NumberFormatException ignored) {}
+        }
+        String[] receptors = Distribuidor.carregarReceptores(args);
+        Random rnd = new Random();
+        long datasetId;
+        do { datasetId = rnd.nextLong(); } while (datasetId == Distribuidor.SEM_CACHE);
+
+        // Cópia local só para conferir as contagens mantidas
+        VetorSegmentado espelho = VetorSegmentado.alocar(total);
+        long[] esperado = new long[Histograma.TAMANHO];
+        byte[] bloco = new byte[1 << 20];
+        int erros = 0;
+
+        try (Ingestao ingestao = abrir(datasetId, receptors)) {
+            System.out.printf("[I] Dataset %d em %d receptores, faixas de %d MB%n",
+                    datasetId, ingestao.destinos.length, FAIXA >> 20);
+            int passo = 0;
+            while (ingestao.tamanho() < total) {
+                int len = (int) Math.min(bloco.length, total - ingestao.tamanho());
+                GeradorVetor.preencher(bloco, rnd.nextLong());
+                espelho.copiarDe(bloco, 0, ingestao.tamanho(), len);
+                for (int i = 0; i < len; i++) esperado[bloco[i] & 0xFF]++;
+                ingestao.anexar(bloco, 0, len);
+
+                // a cada bloco, um trecho já ingerido é sobrescrito
+                int trecho = (int) Math.min(64 * 1024, ingestao.tamanho());
+                long posicao = (long) (rnd.nextDouble() * (ingestao.tamanho() - trecho));
+                GeradorVetor.preencher(bloco, rnd.nextLong());
+                for (int i = 0; i < trecho; i++) {
+                    esperado[espelho.get(posicao + i) & 0xFF]--;
+                    esperado[bloco[i] & 0xFF]++;
+                }
+                espelho.copiarDe(bloco, 0, posicao, trecho);
+                ingestao.atualizar(posicao, bloco, 0, trecho);
+
+                byte procurado = (byte) (rnd.nextInt(201) - 100);
+                long t0 = System.nanoTime();
+                long contagem = ingestao.contar(procurado);
+                double ms = (System.nanoTime() - t0) / 1_000_000.0;
+                boolean ok = contagem == esperado[procurado & 0xFF];
+                if (!ok) erros++;
+                if (!ok || ++passo % 16 == 0 || ingestao.tamanho() == total) {
+                    System.out.printf("[I] %,d bytes: %d aparece %d vezes (%.3f ms)%s%n", ingestao.tamanho(),
+                            procurado, contagem, ms, ok ? "" : "  ESPERADO " + esperado[procurado & 0xFF]);
+                }
+            }
+            boolean tabelaOk = java.util.Arrays.equals(ingestao.histograma(), esperado);
+            System.out.printf("[I] Histograma mantido %s; %d contagens divergentes%n",
+                    tabelaOk ? "confere" : "NÃO confere", erros);
+            if (!tabelaOk) erros++;
+        } finally {
+            ConexaoReceptor.fecharSessoes();
+        }
+        System.exit(erros == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Núcleo (kernel) da contagem: quantos bytes de uma fatia são iguais a "procurado".
+ * É o laço quente de todo receptor, por isso fica plugável.
+ *
+ * A implementação é escolhida uma vez, na inicialização, pela propriedade
+ * -Dkernel=escalar|swar|vetorial (padrão: vetorial). O vetorial usa o módulo
+ * jdk.incubator.vector e só é carregado se a JVM subiu com
+ * --add-modules jdk.incubator.vector; sem ele, fica o swar.
+ */
+public interface KernelContagem {
+
+    KernelContagem ATIVO = selecionar(System.getProperty("kernel", "vetorial"));
+
+    int contar(byte[] numeros, int inicio, int len, byte procurado);
+
+    /**
+     * Conta os bytes restantes de "dados" (de position até limit) sem alterar
+     * a posição. Buffers com array por trás caem no caminho de byte[];
+     * buffers diretos (fora do heap) são lidos no lugar, sem cópia.
+     */
+    int contar(ByteBuffer dados, byte procurado);
+
+    String nome();
+
+    static KernelContagem selecionar(String nome) {
+        switch (nome.trim().toLowerCase()) {
+            case "escalar":
+                return new KernelEscalar();
+            case "swar":
+                return new KernelSwar();
+            case "vetorial":
+                if (vetorialDisponivel()) return vetorial();
+                System.err.println("[Kernel] Sem o módulo jdk.incubator.vector (--add-modules jdk.incubator.vector). Usando swar.");
+                return new KernelSwar();
+            default:
+                System.err.printf("[Kernel] Kernel desconhecido '%s'. Usando swar.%n", nome);
+                return new KernelSwar();
+        }
+    }
+
+    /** Todos os kernels disponíveis, para verificação e benchmark. */
+    static KernelContagem[] todos() {
+        if (vetorialDisponivel()) {
+            return new KernelContagem[] { new KernelEscalar(), new KernelSwar(), vetorial() };
+        }
+        return new KernelContagem[] { new KernelEscalar(), new KernelSwar() };
+    }
+
+    private static boolean vetorialDisponivel() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /**
+     * KernelVetorial por reflexão: referenciá-lo direto faria esta interface
+     * depender do módulo incubado mesmo quando o kernel não é usado.
+     */
+    private static KernelContagem vetorial() {
+        try {
+            return (KernelContagem) Class.forName("KernelVetorial").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("[Kernel] Kernel vetorial indisponível (" + e + "). Usando swar.");
+            return new KernelSwar();
+        }
+    }
+}
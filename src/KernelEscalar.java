@@ -0,0 +1,32 @@
+import java.nio.ByteBuffer;
+
+/** Kernel de referência: compara um byte por iteração. */
+public class KernelEscalar implements KernelContagem {
+
+    @Override
+    public int contar(byte[] numeros, int inicio, int len, byte procurado) {
+        int c = 0;
+        int fim = inicio + len;
+        for (int i = inicio; i < fim; i++) {
+            if (numeros[i] == procurado) c++;
+        }
+        return c;
+    }
+
+    @Override
+    public int contar(ByteBuffer dados, byte procurado) {
+        if (dados.hasArray()) {
+            return contar(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining(), procurado);
+        }
+        int c = 0;
+        for (int i = dados.position(), fim = dados.limit(); i < fim; i++) {
+            if (dados.get(i) == procurado) c++;
+        }
+        return c;
+    }
+
+    @Override
+    public String nome() {
+        return "escalar";
+    }
+}
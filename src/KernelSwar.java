@@ -0,0 +1,66 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Kernel SWAR ("SIMD within a register"): lê 8 bytes por long e conta os
+ * iguais a "procurado" com aritmética de bits, sem precisar do módulo
+ * jdk.incubator.vector. A cauda (menos de 8 bytes) usa o laço escalar.
+ */
+public class KernelSwar implements KernelContagem {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long UNS = 0x0101010101010101L;
+    private static final long SETE_F = 0x7F7F7F7F7F7F7F7FL;
+
+    @Override
+    public int contar(byte[] numeros, int inicio, int len, byte procurado) {
+        long padrao = UNS * (procurado & 0xFF);
+        int c = 0;
+        int i = inicio;
+        int fimPalavras = inicio + (len & ~7);
+        for (; i < fimPalavras; i += 8) {
+            c += zerosNaPalavra((long) LONGS.get(numeros, i) ^ padrao);
+        }
+        int fim = inicio + len;
+        for (; i < fim; i++) {
+            if (numeros[i] == procurado) c++;
+        }
+        return c;
+    }
+
+    @Override
+    public int contar(ByteBuffer dados, byte procurado) {
+        if (dados.hasArray()) {
+            return contar(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining(), procurado);
+        }
+        // Buffer direto: getLong absoluto lê a memória fora do heap no lugar.
+        // A ordem dos bytes não importa, o padrão é o mesmo byte repetido.
+        long padrao = UNS * (procurado & 0xFF);
+        int c = 0;
+        int i = dados.position();
+        int fim = dados.limit();
+        for (int fimPalavras = i + ((fim - i) & ~7); i < fimPalavras; i += 8) {
+            c += zerosNaPalavra(dados.getLong(i) ^ padrao);
+        }
+        for (; i < fim; i++) {
+            if (dados.get(i) == procurado) c++;
+        }
+        return c;
+    }
+
+    /** Quantos bytes de "x" são 0x00 (bytes iguais a "procurado" viram 0x00 no XOR). */
+    private static int zerosNaPalavra(long x) {
+        // bit alto de cada byte fica ligado exatamente nos bytes zero (sem falsos positivos)
+        long zeros = ~(((x & SETE_F) + SETE_F) | x | SETE_F);
+        return Long.bitCount(zeros);
+    }
+
+    @Override
+    public String nome() {
+        return "swar";
+    }
+}
@@ -0,0 +1,58 @@
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel com a Vector API (jdk.incubator.vector): compara um vetor inteiro
+ * de bytes por vez com "procurado" e soma os acertos da máscara. A cauda
+ * (menos que um vetor) usa o laço escalar.
+ *
+ * Só existe com --add-modules jdk.incubator.vector; KernelContagem.selecionar
+ * carrega esta classe por reflexão e cai no swar quando o módulo não está lá.
+ *
+ * Buffers diretos passam por um rascunho byte[] por thread, em blocos que
+ * cabem no L1: ByteVector.fromMemorySegment ainda é API de preview no JDK 21.
+ */
+public class KernelVetorial implements KernelContagem {
+
+    private static final VectorSpecies<Byte> ESPECIE = ByteVector.SPECIES_PREFERRED;
+
+    private static final ThreadLocal<byte[]> RASCUNHO = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
+
+    @Override
+    public int contar(byte[] numeros, int inicio, int len, byte procurado) {
+        int c = 0;
+        int i = inicio;
+        int fim = inicio + len;
+        for (int fimVetores = inicio + ESPECIE.loopBound(len); i < fimVetores; i += ESPECIE.length()) {
+            c += ByteVector.fromArray(ESPECIE, numeros, i).compare(VectorOperators.EQ, procurado).trueCount();
+        }
+        for (; i < fim; i++) {
+            if (numeros[i] == procurado) c++;
+        }
+        return c;
+    }
+
+    @Override
+    public int contar(ByteBuffer dados, byte procurado) {
+        if (dados.hasArray()) {
+            return contar(dados.array(), dados.arrayOffset() + dados.position(), dados.remaining(), procurado);
+        }
+        byte[] rascunho = RASCUNHO.get();
+        int c = 0;
+        for (int i = dados.position(), fim = dados.limit(); i < fim; ) {
+            int n = Math.min(rascunho.length, fim - i);
+            dados.get(i, rascunho, 0, n);
+            c += contar(rascunho, 0, n, procurado);
+            i += n;
+        }
+        return c;
+    }
+
+    @Override
+    public String nome() {
+        return "vetorial";
+    }
+}
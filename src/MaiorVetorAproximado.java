@@ -1,37 +1,29 @@
 public class MaiorVetorAproximado {
 
     /**
-     * Tenta alocar vetores de byte crescentes até estourar a memória,
-     * para descobrir o limite prático da máquina.
-     * Usa a lógica de incremento exata do arquivo original.
-     * @return O tamanho (em elementos) do maior vetor de bytes que pôde ser alocado.
+     * Estima o maior vetor de bytes que cabe no heap, sem alocar nada:
+     * o cálculo vem do PlanejadorMemoria (heap livre, região do G1).
+     * Antes este método alocava vetores crescentes até estourar a memória,
+     * o que custava segundos e deixava o heap fragmentado.
+     * @return O tamanho (em elementos) do maior vetor de bytes que deve caber.
      */
     public static int estimar() {
         System.out.println("[Estimador] Estimando o maior tamanho possível de vetor em Java...");
         
-        int tamanho = 1_000_000; // começa com 1 milhão
-        int ultimoBemSucedido = 0; 
-        
-        while (true) { 
-            try { 
-                byte[] vetor = new byte[tamanho];
-                ultimoBemSucedido = tamanho;
-                vetor = null; // libera
-                System.gc();
-                
-                // aumenta o tamanho em 50% para a próxima tentativa 
-                if (tamanho > Integer.MAX_VALUE / 3 * 2) break;
-                
-                tamanho /= 2;
-                tamanho *= 3;
-                
-                System.out.printf("[Estimador] ...Alocado com sucesso: %,d elementos%n", ultimoBemSucedido);
-            } catch (OutOfMemoryError e) {
-                System.out.printf("[Estimador] ...Falhou em alocar %,d elementos%n", tamanho);
-                break; // Encontrou o limite
-            } 
-        } 
-        return ultimoBemSucedido;
+        int tamanho = PlanejadorMemoria.maiorArrayNoHeap();
+        long regiao = PlanejadorMemoria.tamanhoRegiaoGC();
+        System.out.printf("[Estimador] ...Heap livre: %,d bytes; região do GC: %s%n",
+                PlanejadorMemoria.heapLivre(), regiao > 0 ? String.format("%,d bytes", regiao) : "n/a");
+        return tamanho;
+    }
+
+    /**
+     * Limite para um vetor fora do heap (VetorSegmentado), sem alocar nada:
+     * o menor entre o limite de memória direta livre da JVM e a memória física livre.
+     * @return O tamanho (em elementos) que o Distribuidor pode usar, podendo passar de 2^31.
+     */
+    public static long estimarForaDoHeap() {
+        return PlanejadorMemoria.foraDoHeapLivre();
     }
 
     /**
@@ -42,6 +34,7 @@ public class MaiorVetorAproximado {
         long inicio = System.currentTimeMillis();
         
         int maiorTamanho = estimar(); // Chama a lógica refatorada
+        long foraDoHeap = estimarForaDoHeap();
             
         long fim = System.currentTimeMillis();
         
@@ -52,6 +45,8 @@ public class MaiorVetorAproximado {
                         String.format("%,d", maiorTamanho)); 
         System.out.printf("[Estimador] Memória estimada: %.2f MB%n",
                         maiorTamanho * 1.0 / (1024 * 1024)); 
+        System.out.printf("[Estimador] Fora do heap: %,d elementos (%.2f MB)%n",
+                        foraDoHeap, foraDoHeap / (1024.0 * 1024.0));
         System.out.printf("[Estimador] Tempo total: %.2f segundos%n", (fim - inicio) / 1000.0);
     } 
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de métricas do processo (Distribuidor ou ReceptorServer):
+ * contadores, temporizadores por fase e medidores lidos na hora.
+ * Os nomes seguem o formato "fase{receptor=\"host:port\"}" para que a
+ * saída em texto possa ser lida por um coletor estilo Prometheus.
+ *
+ * Os valores são acumulados desde o início do processo; o resumo por
+ * rodada fica com quem a executa (ver Distribuidor.executarRodada).
+ * Com -Dmetricas.porta=<porta> a saída fica em http://127.0.0.1:<porta>/metricas.
+ */
+public final class Metricas {
+
+    /** Quantidade, soma e máximo de durações em nanossegundos. */
+    public static final class Temporizador {
+        private final LongAdder quantidade = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maximoNanos = new LongAccumulator(Math::max, 0);
+
+        public void registrar(long nanos) {
+            quantidade.increment();
+            totalNanos.add(nanos);
+            maximoNanos.accumulate(nanos);
+        }
+
+        public long getQuantidade() { return quantidade.sum(); }
+        public long getTotalNanos() { return totalNanos.sum(); }
+        public long getMaximoNanos() { return maximoNanos.get(); }
+    }
+
+    private static final Map<String, LongAdder> CONTADORES = new ConcurrentHashMap<>();
+    private static final Map<String, Temporizador> TEMPORIZADORES = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> MEDIDORES = new ConcurrentHashMap<>();
+
+    private static HttpServer servidorHttp;
+
+    private Metricas() {}
+
+    public static LongAdder contador(String nome) {
+        return CONTADORES.computeIfAbsent(nome, k -> new LongAdder());
+    }
+
+    public static Temporizador tempo(String nome) {
+        return TEMPORIZADORES.computeIfAbsent(nome, k -> new Temporizador());
+    }
+
+    /** Valor lido na hora da coleta (ex.: profundidade de fila, threads ativas). */
+    public static void medidor(String nome, LongSupplier leitura) {
+        MEDIDORES.put(nome, leitura);
+    }
+
+    /** Nome com o rótulo do receptor: fase{receptor="host:port"}. */
+    public static String porReceptor(String fase, String receptor) {
+        return fase + "{receptor=\"" + receptor + "\"}";
+    }
+
+    /** Todas as métricas em texto, uma por linha, em ordem alfabética. */
+    public static String texto() {
+        Map<String, Long> valores = new TreeMap<>();
+        CONTADORES.forEach((nome, c) -> valores.put(nome, c.sum()));
+        MEDIDORES.forEach((nome, m) -> valores.put(nome, m.getAsLong()));
+        TEMPORIZADORES.forEach((nome, t) -> {
+            valores.put(sufixo(nome, "_quantidade"), t.getQuantidade());
+            valores.put(sufixo(nome, "_nanos_total"), t.getTotalNanos());
+            valores.put(sufixo(nome, "_nanos_max"), t.getMaximoNanos());
+        });
+        StringBuilder sb = new StringBuilder();
+        valores.forEach((nome, v) -> sb.append(nome).append(' ').append(v).append('\n'));
+        return sb.toString();
+    }
+
+    /** Sufixo antes dos rótulos: "a{x}" + "_n" vira "a_n{x}". */
+    private static String sufixo(String nome, String sufixo) {
+        int chave = nome.indexOf('{');
+        return chave < 0 ? nome + sufixo : nome.substring(0, chave) + sufixo + nome.substring(chave);
+    }
+
+    /**
+     * Sobe o endpoint HTTP local se -Dmetricas.porta estiver definido.
+     * Só escuta no loopback; chamadas repetidas não fazem nada.
+     */
+    public static synchronized void iniciarHttpSeConfigurado() {
+        Integer porta = Integer.getInteger("metricas.porta");
+        if (porta == null || servidorHttp != null) return;
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+            http.createContext("/metricas", troca -> {
+                byte[] corpo = texto().getBytes(StandardCharsets.UTF_8);
+                troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                troca.sendResponseHeaders(200, corpo.length);
+                try (OutputStream out = troca.getResponseBody()) {
+                    out.write(corpo);
+                }
+            });
+            http.start();
+            servidorHttp = http;
+            System.out.printf("[Metricas] Disponíveis em http://127.0.0.1:%d/metricas%n", http.getAddress().getPort());
+        } catch (IOException e) {
+            System.err.println("[Metricas] Não foi possível abrir o endpoint HTTP: " + e.getMessage());
+        }
+    }
+
+    /** Fecha o endpoint HTTP (a thread dele não é daemon e seguraria a JVM). */
+    public static synchronized void pararHttp() {
+        if (servidorHttp == null) return;
+        servidorHttp.stop(0);
+        servidorHttp = null;
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configuração de um ReceptorServer que é nó intermediário de uma árvore de
+ * agregação. Em vez de contar todo chunk que recebe, o nó conta uma parte e
+ * encaminha as outras aos receptores filhos, cada chunk como um lote próprio;
+ * as respostas dos filhos são somadas às suas e sobe uma só Resposta.
+ *
+ * A forma da árvore é dada nó a nó: cada receptor lista os seus filhos com
+ * -Dreceptor.filhos=host:port,host:port ou -Dreceptor.filhos.arquivo=<arquivo>
+ * (mesmo formato da lista de receptores do Distribuidor, sem "local"). Um
+ * filho pode ser intermediário também. Com fan-out k, o Distribuidor fala
+ * com k nós e cada nível multiplica por k, então tanto os dados que saem de
+ * uma placa de rede quanto as respostas que um nó soma crescem com log_k do
+ * cluster, não com o número de nós.
+ *
+ * A divisão segue o orçamento de memória: o nó informa ao pai o orçamento
+ * da subárvore (o seu mais o dos filhos), e reparte os chunks entre si e os
+ * filhos na mesma proporção. Sem orçamento de todos, a divisão é por igual.
+ *
+ * Shards em cache ficam espalhados como os chunks: com OP_GUARDAR, cada
+ * chunk fica guardado onde foi contado (no cache deste nó ou, com o
+ * OP_GUARDAR repassado, no filho), e o nó anota aqui onde ficou cada pedaço
+ * do shard. Um OP_CONSULTA conta os pedaços daqui e desce como OP_CONSULTA
+ * para os dos filhos; se algum pedaço sumiu, a resposta é cache miss.
+ *
+ * Só o protocolo binário é encaminhado. A falha de um filho derruba a
+ * conexão com o pai, que reatribui os blocos em voo (ver Distribuidor).
+ */
+final class NoIntermediario {
+
+    private static final int POSICOES_CICLO = 64;
+
+    private final String[] filhos;
+    // Ordem de distribuição dos chunks: índice em "filhos", ou -1 para contar aqui
+    private final int[] ciclo;
+    private final AtomicLong proximo = new AtomicLong();
+    private final long orcamentoSubarvore;
+    // Shards guardados na subárvore: (datasetId, inicio, fim) -> onde ficou cada pedaço
+    private final Map<List<Long>, Pedaco[]> shards = new ConcurrentHashMap<>();
+
+    /** Pedaço [inicio, fim) de um shard, guardado no filho "filho" ou aqui (-1). */
+    static final class Pedaco {
+        final long inicio;
+        final long fim;
+        final int filho;
+
+        Pedaco(long inicio, long fim, int filho) {
+            this.inicio = inicio;
+            this.fim = fim;
+            this.filho = filho;
+        }
+    }
+
+    private NoIntermediario(String[] filhos, long[] pesos, long orcamentoSubarvore) {
+        this.filhos = filhos;
+        this.ciclo = intercalar(pesos);
+        this.orcamentoSubarvore = orcamentoSubarvore;
+    }
+
+    /**
+     * Lê os filhos de -Dreceptor.filhos ou -Dreceptor.filhos.arquivo e
+     * consulta o orçamento de cada um.
+     * @return null se este receptor não tem filhos (é folha).
+     */
+    static NoIntermediario configurado(long orcamentoProprio) throws IOException {
+        String propriedade = System.getProperty("receptor.filhos");
+        String arquivo = System.getProperty("receptor.filhos.arquivo");
+        String[] lista;
+        if (propriedade != null && !propriedade.isBlank()) {
+            lista = propriedade.trim().split("\\s*,\\s*");
+        } else if (arquivo != null) {
+            lista = Distribuidor.lerArquivoReceptores(new File(arquivo));
+        } else {
+            return null;
+        }
+        return comFilhos(lista, orcamentoProprio);
+    }
+
+    static NoIntermediario comFilhos(String[] lista, long orcamentoProprio) {
+        List<String> destinos = Distribuidor.destinosDe(lista);
+        for (String d : destinos) {
+            // o chunk é devolvido ao buffer logo após o envio; um ReceptorLocal ainda o estaria lendo
+            if (ReceptorLocal.ehLocal(d)) {
+                throw new IllegalArgumentException("Filho local não faz sentido: o nó já conta a sua parte (" + d + ")");
+            }
+        }
+        String[] filhos = destinos.toArray(new String[0]);
+
+        long[] pesos = new long[filhos.length + 1];
+        pesos[0] = orcamentoProprio;
+        boolean todos = orcamentoProprio > 0;
+        for (int i = 0; i < filhos.length; i++) {
+            long orcamento = -1;
+            try (CanalReceptor canal = CanalReceptor.abrir(filhos[i])) {
+                orcamento = canal.getOrcamentoReceptor();
+                canal.encerrar();
+            } catch (IOException e) {
+                System.err.printf("[R] Filho %s não respondeu ao handshake: %s%n", filhos[i], e.getMessage());
+            }
+            pesos[i + 1] = orcamento;
+            todos &= orcamento > 0;
+        }
+        long subarvore = todos ? Arrays.stream(pesos).sum() : -1;
+        if (!todos) Arrays.fill(pesos, 1);
+        return new NoIntermediario(filhos, pesos, subarvore);
+    }
+
+    /**
+     * Round-robin ponderado suave: cada posição vai para quem tem o maior
+     * crédito acumulado, então os chunks de cada destino ficam espalhados no
+     * ciclo em vez de agrupados. A posição i corresponde a filhos[i - 1].
+     */
+    private static int[] intercalar(long[] pesos) {
+        long soma = Arrays.stream(pesos).sum();
+        int[] vagas = new int[pesos.length];
+        int total = 0;
+        for (int i = 0; i < pesos.length; i++) {
+            vagas[i] = (int) Math.max(1, Math.round(pesos[i] * (double) POSICOES_CICLO / soma));
+            total += vagas[i];
+        }
+        int[] ciclo = new int[total];
+        long[] credito = new long[pesos.length];
+        for (int t = 0; t < total; t++) {
+            int escolhido = 0;
+            for (int i = 0; i < vagas.length; i++) {
+                credito[i] += vagas[i];
+                if (credito[i] > credito[escolhido]) escolhido = i;
+            }
+            credito[escolhido] -= total;
+            ciclo[t] = escolhido - 1;
+        }
+        return ciclo;
+    }
+
+    /** Para onde vai o próximo chunk: o índice de um filho, ou -1 para contar aqui. */
+    int destinoDoProximoChunk() {
+        return ciclo[(int) Math.floorMod(proximo.getAndIncrement(), (long) ciclo.length)];
+    }
+
+    String filho(int indice) {
+        return filhos[indice];
+    }
+
+    int quantidadeFilhos() {
+        return filhos.length;
+    }
+
+    /** Orçamento deste nó mais o dos filhos, ou -1 se algum não informou. */
+    long getOrcamentoSubarvore() {
+        return orcamentoSubarvore;
+    }
+
+    /** Anota onde ficaram os pedaços do shard [inicio, fim) do dataset, depois que todos foram guardados. */
+    void registrarShard(long datasetId, long inicio, long fim, List<Pedaco> pedacos) {
+        shards.put(List.of(datasetId, inicio, fim), pedacos.toArray(new Pedaco[0]));
+    }
+
+    /** Os pedaços do shard, ou null se ele não foi guardado nesta subárvore. */
+    Pedaco[] shardEmCache(long datasetId, long inicio, long fim) {
+        return shards.get(List.of(datasetId, inicio, fim));
+    }
+
+    /** Esquece um shard com pedaço descartado: a próxima consulta já responde cache miss. */
+    void esquecerShard(long datasetId, long inicio, long fim) {
+        shards.remove(List.of(datasetId, inicio, fim));
+    }
+
+    /** Fração dos chunks contada neste nó, para o log. */
+    double fracaoLocal() {
+        return Arrays.stream(ciclo).filter(d -> d < 0).count() / (double) ciclo.length;
+    }
+}
@@ -7,22 +7,21 @@ public class NonDistributedCounter {
         java.util.Random rnd = new java.util.Random();
         
         // Corrigido para usar byte[] [cite: 3, 27]
+        // Mesmo gerador do Distribuidor: com a mesma -Dsemente os dois contam o mesmo vetor
         byte[] vetor = new byte[size];
-        for (int i = 0; i < size; i++) {
-            // Corrigido para castar para byte 
-            vetor[i] = (byte)(rnd.nextInt(201) - 100);
-        }
+        long semente = Long.getLong("semente", rnd.nextLong());
+        GeradorVetor.preencher(vetor, semente);
+        System.out.printf("[SEQ] Vetor de %,d gerado (semente %d)%n", size, semente);
 
         int pos = rnd.nextInt(size);
         // Corrigido para usar byte 
         byte procurado = vetor[pos];
         System.out.printf("[SEQ] Número escolhido (posição %d) = %d%n", pos, procurado);
 
+        KernelContagem kernel = KernelContagem.ATIVO;
         long t0 = System.nanoTime();
-        int c = 0;
-        // Corrigido para iterar sobre byte
-        for (byte v : vetor) if (v == procurado) c++;
+        int c = kernel.contar(vetor, 0, size, procurado);
         long t1 = System.nanoTime();
-        System.out.printf("[SEQ] Contagem = %d, tempo (ms) = %.3f%n", c, (t1 - t0) / 1_000_000.0);
+        System.out.printf("[SEQ] Contagem = %d, tempo (ms) = %.3f (kernel %s)%n", c, (t1 - t0) / 1_000_000.0, kernel.nome());
     }
 }
\ No newline at end of file
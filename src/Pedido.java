@@ -19,10 +19,12 @@ public class Pedido extends Comunicado {
 
     // conta linear (usado caso receptor queira usar sem dividir)
     public int contar() {
-        int c = 0;
-        for (byte v : numeros) { // Loop atualizado para byte
-            if (v == procurado) c++;
-        }
-        return c;
+        return contar(numeros, 0, numeros.length, procurado);
+    }
+
+    // conta sobre uma fatia (usado no modo streaming, com buffers reaproveitados)
+    // usando o kernel escolhido na inicialização (ver KernelContagem)
+    public static int contar(byte[] numeros, int inicio, int len, byte procurado) {
+        return KernelContagem.ATIVO.contar(numeros, inicio, len, procurado);
     }
 }
\ No newline at end of file
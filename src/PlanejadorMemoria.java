@@ -0,0 +1,72 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Calcula tamanhos seguros de vetor a partir do que a JVM informa
+ * (Runtime.maxMemory, MemoryMXBean, tamanho de região do G1, pool de
+ * memória direta e memória física livre), sem nenhuma alocação de teste.
+ *
+ * Substitui a sondagem antiga de MaiorVetorAproximado, que alocava
+ * arrays cada vez maiores com System.gc() até dar OutOfMemoryError.
+ */
+public final class PlanejadorMemoria {
+
+    // Parte do espaço livre reservada para o resto do processo (buffers, objetos, fragmentação)
+    private static final double FOLGA = 0.10;
+
+    private PlanejadorMemoria() {}
+
+    /** Heap ainda não ocupado: máximo configurado menos o uso atual. */
+    public static long heapLivre() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : Runtime.getRuntime().maxMemory();
+        return Math.max(0, max - heap.getUsed());
+    }
+
+    /** Tamanho de região do G1 (-XX:G1HeapRegionSize), ou 0 se outro coletor estiver em uso. */
+    public static long tamanhoRegiaoGC() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotspot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            if (!Boolean.parseBoolean(hotspot.getVMOption("UseG1GC").getValue())) return 0;
+            return Long.parseLong(hotspot.getVMOption("G1HeapRegionSize").getValue());
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Maior byte[] que deve caber no heap agora. No G1 um array desse porte
+     * é "humongous" e ocupa regiões inteiras, então o valor é arredondado
+     * para baixo em múltiplos de região, descontando uma para o cabeçalho.
+     */
+    public static int maiorArrayNoHeap() {
+        long livre = (long) (heapLivre() * (1 - FOLGA));
+        long regiao = tamanhoRegiaoGC();
+        if (regiao > 0) {
+            livre = Math.max(0, (livre / regiao - 1) * regiao);
+        }
+        return (int) Math.min(livre, Integer.MAX_VALUE - 8);
+    }
+
+    /** Memória direta já ocupada por ByteBuffers diretos. */
+    public static long memoriaDiretaEmUso() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+
+    /**
+     * Quanto ainda cabe fora do heap (VetorSegmentado): limite de memória
+     * direta menos o que já está em uso, sem passar da memória física livre.
+     */
+    public static long foraDoHeapLivre() {
+        long livre = VetorSegmentado.limiteMemoriaDireta() - memoriaDiretaEmUso();
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            livre = Math.min(livre, os.getFreeMemorySize());
+        }
+        return Math.max(0, (long) (livre * (1 - FOLGA)));
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Protocolo binário compacto entre Distribuidor e ReceptorServer.
+ *
+ * Handshake: o cliente envia MAGIC (int) + versão (byte) e o receptor responde
+ * com MAGIC + versão aceita. Depois disso cada mensagem é um quadro com
+ * cabeçalho fixo (opcode, id da requisição, procurado, tamanho do payload)
+ * seguido dos bytes crus do payload, sem descritores de classe nem reflexão.
+ *
+ * Os dois primeiros bytes do MAGIC nunca coincidem com o cabeçalho de um
+ * ObjectOutputStream (0xACED), então o receptor consegue distinguir os dois
+ * formatos olhando só o início da conexão.
+ */
+public final class Protocolo {
+
+    public static final int MAGIC = 0x434E5431; // "CNT1"
+    // v1: Pedido/Resposta. v2: + pedido de histograma (OP_HISTOGRAMA/OP_RESPOSTA_HISTOGRAMA)
+    // v3: + cache de shards no receptor (OP_GUARDAR/OP_CONSULTA/OP_CACHE_MISS)
+    // v4: contagens e posições em long (datasets acima de 2^31 elementos).
+    //     v1-v3 não são mais falados no binário; esses pares caem na serialização Java.
+    // v5: o receptor informa seu orçamento de memória (long) logo após o handshake.
+    // v6: + lote de consultas agregadas (OP_AGREGAR/OP_RESPOSTA_AGREGADOS, ver Agregacao)
+    // v7: + ingestão incremental (OP_INGERIR/OP_CONTAGEM_MANTIDA, ver Ingestao e DatasetVivo)
+    public static final byte VERSAO = 7;
+    public static final byte VERSAO_MINIMA = 4;
+    public static final byte VERSAO_HISTOGRAMA = 2;
+    public static final byte VERSAO_CACHE = 3;
+    public static final byte VERSAO_ORCAMENTO = 5;
+    public static final byte VERSAO_AGREGACAO = 6;
+    public static final byte VERSAO_INGESTAO = 7;
+
+    // opcode(1) + requestId(4) + procurado(1) + tamanhoPayload(4)
+    public static final int TAMANHO_CABECALHO = 10;
+
+    public static final byte OP_PEDIDO = 1;
+    public static final byte OP_FIM_LOTE = 2;
+    public static final byte OP_RESPOSTA = 3;
+    public static final byte OP_ENCERRAMENTO = 4;
+    public static final byte OP_HISTOGRAMA = 5;
+    public static final byte OP_RESPOSTA_HISTOGRAMA = 6;
+    public static final byte OP_GUARDAR = 7;
+    public static final byte OP_CONSULTA = 8;
+    public static final byte OP_CACHE_MISS = 9;
+    public static final byte OP_AGREGAR = 10;
+    public static final byte OP_RESPOSTA_AGREGADOS = 11;
+    public static final byte OP_INGERIR = 12;
+    public static final byte OP_CONTAGEM_MANTIDA = 13;
+
+    // Tipos de consulta (payload de OP_CONSULTA)
+    public static final byte TIPO_CONTAGEM = 0;
+    public static final byte TIPO_HISTOGRAMA = 1;
+    public static final byte TIPO_AGREGADOS = 2; // as consultas vêm antes, num OP_AGREGAR com o mesmo id
+
+    private static final int TAMANHO_HISTOGRAMA = Histograma.TAMANHO * 8;
+    // datasetId(8) + inicio(8) + fim(8)
+    private static final int TAMANHO_REFERENCIA = 24;
+    // datasetId(8) + posicao(8), antes dos bytes de OP_INGERIR
+    private static final int TAMANHO_CABECALHO_INGESTAO = 16;
+
+    private Protocolo() {}
+
+    /** Referência a um shard do vetor original: (datasetId, inicio, fim). */
+    public static final class ReferenciaShard {
+        public final long datasetId;
+        public final long inicio;
+        public final long fim;
+        public final byte tipo; // só usado em OP_CONSULTA
+
+        ReferenciaShard(long datasetId, long inicio, long fim, byte tipo) {
+            this.datasetId = datasetId;
+            this.inicio = inicio;
+            this.fim = fim;
+            this.tipo = tipo;
+        }
+    }
+
+    /** Cabeçalho de um OP_INGERIR já lido; os "tamanho" bytes continuam no stream. */
+    public static final class TrechoIngerido {
+        public final long datasetId;
+        public final long posicao;
+        public final int tamanho;
+
+        TrechoIngerido(long datasetId, long posicao, int tamanho) {
+            this.datasetId = datasetId;
+            this.posicao = posicao;
+            this.tamanho = tamanho;
+        }
+    }
+
+    /** Cabeçalho já lido de um quadro. O payload (se houver) continua no stream. */
+    public static final class Quadro {
+        public final byte opcode;
+        public final int requestId;
+        public final byte procurado;
+        public final int tamanhoPayload;
+
+        Quadro(byte opcode, int requestId, byte procurado, int tamanhoPayload) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.procurado = procurado;
+            this.tamanhoPayload = tamanhoPayload;
+        }
+    }
+
+    // --- HANDSHAKE ---
+
+    public static void escreverHandshake(DataOutputStream out, byte versao) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(versao);
+        out.flush();
+    }
+
+    /**
+     * Lê um handshake e devolve a versão anunciada pelo outro lado.
+     * @throws StreamCorruptedException se o MAGIC não confere.
+     */
+    public static byte lerHandshake(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException(String.format("MAGIC inválido: 0x%08X", magic));
+        }
+        return in.readByte();
+    }
+
+    /** Orçamento de memória do receptor (bytes que ele pode manter residentes). */
+    public static void escreverOrcamento(DataOutputStream out, long orcamentoBytes) throws IOException {
+        out.writeLong(orcamentoBytes);
+        out.flush();
+    }
+
+    public static long lerOrcamento(DataInputStream in) throws IOException {
+        return in.readLong();
+    }
+
+    // --- QUADROS ---
+
+    public static void escreverCabecalho(DataOutputStream out, byte opcode, int requestId,
+                                         byte procurado, int tamanhoPayload) throws IOException {
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeByte(procurado);
+        out.writeInt(tamanhoPayload);
+    }
+
+    /**
+     * O mesmo cabeçalho, em "destino" (big-endian, como o DataOutputStream).
+     * Usado quando o payload sai direto de um ByteBuffer pelo canal do socket.
+     */
+    public static void escreverCabecalho(ByteBuffer destino, byte opcode, int requestId,
+                                         byte procurado, int tamanhoPayload) {
+        destino.put(opcode);
+        destino.putInt(requestId);
+        destino.put(procurado);
+        destino.putInt(tamanhoPayload);
+    }
+
+    public static Quadro lerCabecalho(DataInputStream in) throws IOException {
+        byte opcode = in.readByte();
+        int requestId = in.readInt();
+        byte procurado = in.readByte();
+        int tamanho = in.readInt();
+        if (tamanho < 0) {
+            throw new StreamCorruptedException("Tamanho de payload negativo: " + tamanho);
+        }
+        return new Quadro(opcode, requestId, procurado, tamanho);
+    }
+
+    /** Escreve um Pedido direto de uma fatia do vetor, sem cópia intermediária. */
+    public static void escreverPedido(DataOutputStream out, int requestId, byte procurado,
+                                      byte[] vetor, int inicio, int len) throws IOException {
+        escreverCabecalho(out, OP_PEDIDO, requestId, procurado, len);
+        out.write(vetor, inicio, len);
+    }
+
+    public static void escreverPedido(DataOutputStream out, int requestId, Pedido p) throws IOException {
+        byte[] numeros = p.getNumeros();
+        escreverPedido(out, requestId, p.getProcurado(), numeros, 0, numeros.length);
+    }
+
+    /** Lê o payload de um quadro OP_PEDIDO já identificado. */
+    public static Pedido lerPedido(DataInputStream in, Quadro q) throws IOException {
+        byte[] numeros = new byte[q.tamanhoPayload];
+        in.readFully(numeros);
+        return new Pedido(numeros, q.procurado);
+    }
+
+    public static void escreverFimLote(DataOutputStream out, int requestId) throws IOException {
+        escreverCabecalho(out, OP_FIM_LOTE, requestId, (byte) 0, 0);
+    }
+
+    public static void escreverResposta(DataOutputStream out, int requestId, Resposta r) throws IOException {
+        escreverCabecalho(out, OP_RESPOSTA, requestId, (byte) 0, 8);
+        out.writeLong(r.getContagem());
+    }
+
+    public static Resposta lerResposta(DataInputStream in, Quadro q) throws IOException {
+        if (q.opcode != OP_RESPOSTA || q.tamanhoPayload != 8) {
+            throw new StreamCorruptedException("Quadro inesperado no lugar da Resposta: opcode " + q.opcode);
+        }
+        return new Resposta(in.readLong());
+    }
+
+    public static void escreverRespostaHistograma(DataOutputStream out, int requestId,
+                                                  RespostaHistograma r) throws IOException {
+        escreverCabecalho(out, OP_RESPOSTA_HISTOGRAMA, requestId, (byte) 0, TAMANHO_HISTOGRAMA);
+        for (long c : r.getContagens()) {
+            out.writeLong(c);
+        }
+    }
+
+    public static RespostaHistograma lerRespostaHistograma(DataInputStream in, Quadro q) throws IOException {
+        if (q.opcode != OP_RESPOSTA_HISTOGRAMA || q.tamanhoPayload != TAMANHO_HISTOGRAMA) {
+            throw new StreamCorruptedException("Quadro inesperado no lugar da RespostaHistograma: opcode " + q.opcode);
+        }
+        long[] contagens = new long[Histograma.TAMANHO];
+        for (int v = 0; v < contagens.length; v++) {
+            contagens[v] = in.readLong();
+        }
+        return new RespostaHistograma(contagens);
+    }
+
+    /**
+     * Marca o lote "requestId" para ser guardado no cache do receptor como o
+     * shard [inicio, fim) do dataset. Vem antes dos quadros Pedido do lote.
+     */
+    public static void escreverGuardar(DataOutputStream out, int requestId, long datasetId,
+                                       long inicio, long fim) throws IOException {
+        escreverCabecalho(out, OP_GUARDAR, requestId, (byte) 0, TAMANHO_REFERENCIA);
+        out.writeLong(datasetId);
+        out.writeLong(inicio);
+        out.writeLong(fim);
+    }
+
+    /** Consulta sobre um shard já residente no receptor: só a referência, sem dados. */
+    public static void escreverConsulta(DataOutputStream out, int requestId, byte procurado, byte tipo,
+                                        long datasetId, long inicio, long fim) throws IOException {
+        escreverCabecalho(out, OP_CONSULTA, requestId, procurado, TAMANHO_REFERENCIA + 1);
+        out.writeLong(datasetId);
+        out.writeLong(inicio);
+        out.writeLong(fim);
+        out.writeByte(tipo);
+    }
+
+    /** Lê o payload de OP_GUARDAR ou OP_CONSULTA. */
+    public static ReferenciaShard lerReferencia(DataInputStream in, Quadro q) throws IOException {
+        int esperado = q.opcode == OP_CONSULTA ? TAMANHO_REFERENCIA + 1 : TAMANHO_REFERENCIA;
+        if (q.tamanhoPayload != esperado) {
+            throw new StreamCorruptedException("Referência de shard com tamanho inválido: " + q.tamanhoPayload);
+        }
+        long datasetId = in.readLong();
+        long inicio = in.readLong();
+        long fim = in.readLong();
+        byte tipo = q.opcode == OP_CONSULTA ? in.readByte() : TIPO_CONTAGEM;
+        return new ReferenciaShard(datasetId, inicio, fim, tipo);
+    }
+
+    /**
+     * Marca o lote "requestId" como um lote de consultas agregadas. Vem antes
+     * dos quadros OP_HISTOGRAMA do lote (ou da OP_CONSULTA, com o shard em cache),
+     * e a Resposta é um OP_RESPOSTA_AGREGADOS com um parcial por consulta.
+     */
+    public static void escreverAgregar(DataOutputStream out, int requestId,
+                                       Agregacao.Consulta[] consultas) throws IOException {
+        escreverCabecalho(out, OP_AGREGAR, requestId, (byte) 0, Agregacao.tamanhoConsultas(consultas));
+        Agregacao.escreverConsultas(out, consultas);
+    }
+
+    public static Agregacao.Consulta[] lerAgregar(DataInputStream in, Quadro q) throws IOException {
+        return Agregacao.lerConsultas(in, q.tamanhoPayload);
+    }
+
+    public static void escreverRespostaAgregados(DataOutputStream out, int requestId,
+                                                 Agregacao.Parcial[] parciais) throws IOException {
+        escreverCabecalho(out, OP_RESPOSTA_AGREGADOS, requestId, (byte) 0, Agregacao.tamanhoParciais(parciais));
+        Agregacao.escreverParciais(out, parciais);
+    }
+
+    public static Agregacao.Parcial[] lerRespostaAgregados(DataInputStream in, Quadro q) throws IOException {
+        if (q.opcode != OP_RESPOSTA_AGREGADOS) {
+            throw new StreamCorruptedException("Quadro inesperado no lugar da resposta agregada: opcode " + q.opcode);
+        }
+        return Agregacao.lerParciais(in, q.tamanhoPayload);
+    }
+
+    /**
+     * Escreve "len" bytes na posição "posicao" do dataset vivo "datasetId" do
+     * receptor: anexa no fim ou sobrescreve o que já existe. Não tem resposta;
+     * uma consulta posterior na mesma sessão já vê a escrita.
+     */
+    public static void escreverIngerir(DataOutputStream out, long datasetId, long posicao,
+                                       byte[] dados, int off, int len) throws IOException {
+        escreverCabecalho(out, OP_INGERIR, 0, (byte) 0, TAMANHO_CABECALHO_INGESTAO + len);
+        out.writeLong(datasetId);
+        out.writeLong(posicao);
+        out.write(dados, off, len);
+    }
+
+    public static TrechoIngerido lerIngerir(DataInputStream in, Quadro q) throws IOException {
+        if (q.tamanhoPayload < TAMANHO_CABECALHO_INGESTAO) {
+            throw new StreamCorruptedException("Ingestão com tamanho inválido: " + q.tamanhoPayload);
+        }
+        long datasetId = in.readLong();
+        long posicao = in.readLong();
+        if (posicao < 0) throw new StreamCorruptedException("Posição de ingestão negativa: " + posicao);
+        return new TrechoIngerido(datasetId, posicao, q.tamanhoPayload - TAMANHO_CABECALHO_INGESTAO);
+    }
+
+    /**
+     * Pede a contagem de "procurado" (TIPO_CONTAGEM, resposta OP_RESPOSTA) ou a
+     * tabela inteira (TIPO_HISTOGRAMA, resposta OP_RESPOSTA_HISTOGRAMA) mantida
+     * para o dataset vivo, sem passada sobre os dados.
+     */
+    public static void escreverContagemMantida(DataOutputStream out, int requestId, byte procurado, byte tipo,
+                                               long datasetId) throws IOException {
+        escreverCabecalho(out, OP_CONTAGEM_MANTIDA, requestId, procurado, 9);
+        out.writeLong(datasetId);
+        out.writeByte(tipo);
+    }
+
+    /** Lê o payload de OP_CONTAGEM_MANTIDA como uma referência ao dataset inteiro. */
+    public static ReferenciaShard lerContagemMantida(DataInputStream in, Quadro q) throws IOException {
+        if (q.tamanhoPayload != 9) {
+            throw new StreamCorruptedException("Consulta mantida com tamanho inválido: " + q.tamanhoPayload);
+        }
+        long datasetId = in.readLong();
+        byte tipo = in.readByte();
+        return new ReferenciaShard(datasetId, 0, Long.MAX_VALUE, tipo);
+    }
+
+    public static void escreverCacheMiss(DataOutputStream out, int requestId) throws IOException {
+        escreverCabecalho(out, OP_CACHE_MISS, requestId, (byte) 0, 0);
+    }
+
+    public static void escreverEncerramento(DataOutputStream out) throws IOException {
+        escreverCabecalho(out, OP_ENCERRAMENTO, 0, (byte) 0, 0);
+    }
+
+    /** Descarta o payload de um quadro que não será tratado. */
+    public static void pularPayload(DataInputStream in, Quadro q) throws IOException {
+        int restante = q.tamanhoPayload;
+        while (restante > 0) {
+            int pulados = in.skipBytes(restante);
+            if (pulados <= 0) throw new EOFException();
+            restante -= pulados;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receptor no mesmo processo do Distribuidor (o transporte "em processo" de
+ * CanalReceptor). Os blocos não passam por socket nem por serialização:
+ * cada intervalo vira uma visão (VetorSegmentado.fatia) do próprio vetor do
+ * Distribuidor, contada direto no pool fork/join do receptor (ContagemParalela).
+ *
+ * Cada receptor local tem o seu pool, com THREADS_POR_RECEPTOR threads. Por
+ * padrão há um receptor local por nó NUMA e os núcleos são divididos entre
+ * eles, então a máquina inteira é usada sem que um pool dispute os núcleos
+ * de outro; o roubo de trabalho do Distribuidor equilibra a carga entre eles.
+ * A JVM não fixa threads em nós, então isso dimensiona, mas não amarra.
+ *
+ * Na lista de receptores: "local" abre um receptor local por nó NUMA e
+ * "local:N" abre N; eles se misturam livremente com "host:port" remotos.
+ */
+public final class ReceptorLocal implements CanalReceptor {
+
+    static final String PREFIXO = "local";
+
+    public static final int NOS_NUMA = contarNosNuma();
+    // -Dlocal.threads=<n> para fixar; padrão: os núcleos divididos pelos nós NUMA
+    public static final int THREADS_POR_RECEPTOR = Math.max(1, Integer.getInteger("local.threads",
+            Runtime.getRuntime().availableProcessors() / NOS_NUMA));
+
+    // Um pool por receptor local, reaproveitado entre rodadas (threads daemon)
+    private static final Map<String, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+    // Datasets vivos (ingestão) de cada receptor local: destino -> datasetId -> dataset
+    private static final Map<String, Map<Long, DatasetVivo>> DATASETS = new ConcurrentHashMap<>();
+
+    // Marcadores na fila de respostas: o receptor foi derrubado / o canal foi fechado
+    private static final RespostaRecebida DERRUBADO = new RespostaRecebida(-1, 0);
+    private static final RespostaRecebida CANAL_FECHADO = new RespostaRecebida(-1, 0);
+
+    private final String destino;
+    private final ForkJoinPool pool;
+    private final Map<Long, DatasetVivo> datasets;
+    private final BlockingQueue<RespostaRecebida> respostas = new LinkedBlockingQueue<>();
+    private int proximoRequestId = 1;
+    private volatile String falha;
+    private Lote loteAtual;
+
+    /** Um lote em contagem; quem zerar "pendentes" entrega a resposta. */
+    private static final class Lote {
+        final int requestId;
+        final VetorSegmentado vetor;
+        final byte procurado;
+        final boolean histograma;
+        final Agregacao.Consulta[] consultas;
+        final AtomicLong soma = new AtomicLong();
+        final Queue<int[]> histogramasParciais = new ConcurrentLinkedQueue<>();
+        // 1 "ficha" enquanto o lote não é fechado + 1 por fatia ainda não contada
+        final AtomicInteger pendentes = new AtomicInteger(1);
+
+        Lote(int requestId, VetorSegmentado vetor, byte procurado, boolean histograma,
+             Agregacao.Consulta[] consultas) {
+            this.requestId = requestId;
+            this.vetor = vetor;
+            this.procurado = procurado;
+            this.histograma = histograma;
+            this.consultas = consultas;
+        }
+    }
+
+    private ReceptorLocal(String destino, ForkJoinPool pool, Map<Long, DatasetVivo> datasets) {
+        this.destino = destino;
+        this.pool = pool;
+        this.datasets = datasets;
+    }
+
+    static boolean ehLocal(String destino) {
+        return destino.equals(PREFIXO) || destino.startsWith(PREFIXO + ":") || destino.startsWith(PREFIXO + "-");
+    }
+
+    /**
+     * Troca uma entrada da lista de receptores pelos destinos locais que ela
+     * representa: "local" vira "local-0".."local-(NOS_NUMA-1)", "local:N" vira
+     * N destinos. Os números continuam de "jaExistentes" para que duas
+     * entradas "local" na mesma lista não repitam nomes.
+     */
+    static List<String> expandir(String entrada, int jaExistentes) {
+        int quantos = NOS_NUMA;
+        if (entrada.startsWith(PREFIXO + ":")) {
+            quantos = Integer.parseInt(entrada.substring(PREFIXO.length() + 1).trim());
+            if (quantos < 1) throw new IllegalArgumentException("Número de receptores locais inválido: " + entrada);
+        }
+        List<String> destinos = new ArrayList<>();
+        for (int i = 0; i < quantos; i++) {
+            destinos.add(PREFIXO + "-" + (jaExistentes + i));
+        }
+        return destinos;
+    }
+
+    static ReceptorLocal abrir(String destino) {
+        ForkJoinPool pool = POOLS.computeIfAbsent(destino, d -> new ForkJoinPool(THREADS_POR_RECEPTOR));
+        return new ReceptorLocal(destino, pool, DATASETS.computeIfAbsent(destino, d -> new ConcurrentHashMap<>()));
+    }
+
+    /** Nós NUMA vistos pelo Linux em /sys; 1 em qualquer outro sistema. */
+    private static int contarNosNuma() {
+        Integer configurado = Integer.getInteger("local.nos");
+        if (configurado != null) return Math.max(1, configurado);
+        File[] nos = new File("/sys/devices/system/node").listFiles((dir, nome) -> nome.matches("node\\d+"));
+        return nos == null || nos.length == 0 ? 1 : nos.length;
+    }
+
+    @Override
+    public String protocolo() {
+        return "em processo, " + THREADS_POR_RECEPTOR + " threads";
+    }
+
+    // Nada passa por socket nem é copiado
+    @Override
+    public long getBytesEnviados() {
+        return 0;
+    }
+
+    @Override
+    public long getBytesRecebidos() {
+        return 0;
+    }
+
+    @Override
+    public long getNanosCopia() {
+        return 0;
+    }
+
+    /** Não guarda nada além do vetor do próprio Distribuidor: sem orçamento a informar. */
+    @Override
+    public long getOrcamentoReceptor() {
+        return -1;
+    }
+
+    /** Os dados já estão aqui; não há shard para guardar nem consulta sem dados a fazer. */
+    @Override
+    public boolean suportaCache() {
+        return false;
+    }
+
+    @Override
+    public boolean suportaHistograma() {
+        return true;
+    }
+
+    @Override
+    public boolean suportaAgregacao() {
+        return true;
+    }
+
+    @Override
+    public boolean suportaIngestao() {
+        return true;
+    }
+
+    @Override
+    public void iniciarLote(VetorSegmentado vetor, byte procurado) {
+        loteAtual = new Lote(proximoRequestId++, vetor, procurado, false, null);
+    }
+
+    @Override
+    public void iniciarLoteHistograma(VetorSegmentado vetor) {
+        loteAtual = new Lote(proximoRequestId++, vetor, (byte) 0, true, null);
+    }
+
+    @Override
+    public void iniciarLoteAgregacao(VetorSegmentado vetor, Agregacao.Consulta[] consultas) {
+        loteAtual = new Lote(proximoRequestId++, vetor, (byte) 0, true, consultas);
+    }
+
+    @Override
+    public void marcarParaCache(long datasetId, Distribuidor.Intervalo inter) {
+        // sem cache (ver suportaCache)
+    }
+
+    @Override
+    public int enviarConsulta(long datasetId, Distribuidor.Intervalo inter, byte procurado, boolean histograma)
+            throws IOException {
+        throw new IOException(destino + " não tem cache de shards");
+    }
+
+    @Override
+    public int enviarConsultaAgregada(long datasetId, Distribuidor.Intervalo inter, Agregacao.Consulta[] consultas)
+            throws IOException {
+        throw new IOException(destino + " não tem cache de shards");
+    }
+
+    /** Aplica na hora: "dados" é do chamador e pode ser reaproveitado assim que isto volta. */
+    @Override
+    public void ingerir(long datasetId, long posicao, byte[] dados, int off, int len) throws IOException {
+        verificarFalha();
+        try {
+            datasets.computeIfAbsent(datasetId, id -> new DatasetVivo()).escrever(posicao, dados, off, len);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(destino + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int consultarMantida(long datasetId, byte procurado, boolean histograma) throws IOException {
+        verificarFalha();
+        int requestId = proximoRequestId++;
+        DatasetVivo ds = datasets.get(datasetId);
+        if (histograma) {
+            respostas.add(new RespostaRecebida(requestId, ds != null ? ds.histograma() : new long[Histograma.TAMANHO]));
+        } else {
+            respostas.add(new RespostaRecebida(requestId, ds != null ? ds.contar(procurado) : 0));
+        }
+        return requestId;
+    }
+
+    /** Submete cada trecho contíguo do intervalo ao pool, como visão do vetor (sem cópia). */
+    @Override
+    public void enviar(Distribuidor.Intervalo inter) throws IOException {
+        verificarFalha();
+        Lote lote = loteAtual;
+        for (long i = inter.inicio; i < inter.fim; ) {
+            int len = (int) Math.min(inter.fim - i, lote.vetor.contiguosAPartirDe(i));
+            ByteBuffer fatia = lote.vetor.fatia(i, len);
+            lote.pendentes.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    if (lote.histograma) {
+                        lote.histogramasParciais.add(ContagemParalela.histograma(fatia));
+                    } else {
+                        lote.soma.addAndGet(ContagemParalela.contar(fatia, lote.procurado));
+                    }
+                } catch (RuntimeException e) {
+                    derrubar("erro na contagem: " + e);
+                    return;
+                }
+                if (lote.pendentes.decrementAndGet() == 0) responder(lote);
+            });
+            i += len;
+        }
+    }
+
+    @Override
+    public int fecharLote() throws IOException {
+        verificarFalha();
+        Lote lote = loteAtual;
+        loteAtual = null;
+        if (lote.pendentes.decrementAndGet() == 0) responder(lote); // lote vazio ou já contado
+        return lote.requestId;
+    }
+
+    private void responder(Lote lote) {
+        if (!lote.histograma) {
+            respostas.add(new RespostaRecebida(lote.requestId, lote.soma.get()));
+            return;
+        }
+        long[] total = new long[Histograma.TAMANHO];
+        for (int[] parcial : lote.histogramasParciais) {
+            Histograma.somar(total, parcial);
+        }
+        respostas.add(lote.consultas != null
+                ? new RespostaRecebida(lote.requestId, Agregacao.avaliar(lote.consultas, total))
+                : new RespostaRecebida(lote.requestId, total));
+    }
+
+    @Override
+    public RespostaRecebida receberResposta() throws IOException {
+        RespostaRecebida r;
+        try {
+            r = respostas.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido esperando resposta de " + destino);
+        }
+        if (r == DERRUBADO) {
+            respostas.add(DERRUBADO); // uma nova chamada também vê a queda
+            verificarFalha();
+        }
+        if (r == CANAL_FECHADO) {
+            throw new IOException("Canal fechado");
+        }
+        return r;
+    }
+
+    private void verificarFalha() throws IOException {
+        if (falha != null) throw new IOException(destino + " derrubado: " + falha);
+    }
+
+    @Override
+    public void encerrar() {
+        // o pool fica para as próximas rodadas
+    }
+
+    /** Fatias já submetidas terminam no pool, mas suas respostas não são mais esperadas. */
+    @Override
+    public void derrubar(String motivo) {
+        if (falha != null) return;
+        falha = motivo;
+        respostas.add(DERRUBADO);
+    }
+
+    @Override
+    public void close() {
+        respostas.add(CANAL_FECHADO);
+    }
+}
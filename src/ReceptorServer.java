@@ -1,12 +1,67 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList; // Importar ArrayList
+import java.util.HashMap;
 import java.util.List; // Importar List
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ReceptorServer {
     private static final int PORT = 12345;
     private static final int BACKLOG = 50;
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+    // Maior pedaço de um Pedido mantido em memória de uma vez no modo streaming
+    private static final int TAMANHO_CHUNK_RECEPCAO = Integer.getInteger("receptor.chunk", 1024 * 1024);
+
+    // Shards residentes, compartilhados entre conexões (ver CacheShards)
+    private static final CacheShards CACHE = new CacheShards(CacheShards.orcamentoPadrao());
+
+    // Um único pool de contagem para o processo inteiro, do tamanho da CPU:
+    // N distribuidores conectados dividem os mesmos núcleos em vez de criar N pools.
+    // É um ForkJoinPool para que cada chunk se divida em fatias do tamanho do L2
+    // (ContagemParalela) e os núcleos ociosos roubem as metades.
+    // As threads de um ForkJoinPool são daemon: não seguram a JVM quando o
+    // receptor roda dentro de outro processo.
+    private static final int WORKERS = Integer.getInteger("receptor.workers",
+            Math.max(1, Runtime.getRuntime().availableProcessors()));
+    private static final ForkJoinPool WORKER_POOL = new ForkJoinPool(WORKERS);
+
+    // Controle de admissão: no máximo FILA_MAXIMA chunks na fila/execução do pool,
+    // somando todas as conexões. Sem permissão a conexão para de ler o socket e o
+    // TCP segura o remetente (back-pressure), em vez de acumular memória aqui.
+    private static final int FILA_MAXIMA = Integer.getInteger("receptor.fila", WORKERS * 4);
+    private static final Semaphore ADMISSAO = new Semaphore(FILA_MAXIMA);
+    // Buffers de recepção reaproveitados, fora do heap: o chunk é lido do canal
+    // direto para eles e contado no lugar (ou encaminhado a um filho). Nunca há
+    // mais que FILA_MAXIMA em uso (mais um por conexão ingerindo).
+    private static final Queue<ByteBuffer> BUFFERS_LIVRES = new ConcurrentLinkedQueue<>();
+
+    // Medidas por chunk e por lote, somadas entre conexões (ver Metricas)
+    private static final Metricas.Temporizador TEMPO_RECEPCAO = Metricas.tempo("receptor_recepcao");
+    private static final Metricas.Temporizador TEMPO_ADMISSAO = Metricas.tempo("receptor_admissao");
+    private static final Metricas.Temporizador TEMPO_FILA = Metricas.tempo("receptor_fila");
+    private static final Metricas.Temporizador TEMPO_CONTAGEM = Metricas.tempo("receptor_contagem");
+    private static final Metricas.Temporizador TEMPO_LOTE = Metricas.tempo("receptor_lote");
+    private static final Metricas.Temporizador TEMPO_DESSERIALIZACAO = Metricas.tempo("receptor_desserializacao");
+    private static final LongAdder BYTES_RECEBIDOS = Metricas.contador("receptor_bytes_recebidos");
+
+    static {
+        // profundidade da fila e ocupação do pool, lidas na hora da coleta
+        Metricas.medidor("receptor_fila_chunks", () -> FILA_MAXIMA - ADMISSAO.availablePermits());
+        Metricas.medidor("receptor_fila_maxima", () -> FILA_MAXIMA);
+        Metricas.medidor("receptor_pool_threads", () -> WORKERS);
+        Metricas.medidor("receptor_pool_ativas", WORKER_POOL::getActiveThreadCount);
+        Metricas.medidor("receptor_pool_enfileiradas",
+                () -> WORKER_POOL.getQueuedSubmissionCount() + WORKER_POOL.getQueuedTaskCount());
+        Metricas.medidor("receptor_cache_bytes", CACHE::getBytesEmUso);
+    }
 
     public static void main(String[] args) {
         int port = PORT;
@@ -15,84 +70,692 @@ public class ReceptorServer {
         }
 
         System.out.printf("[R] Iniciando Receptor em porta %d%n", port);
+        Metricas.iniciarHttpSeConfigurado();
+        System.out.printf("[R] Pool de contagem: %d threads, até %d chunks em fila, fatias de %d KB%n",
+                WORKERS, FILA_MAXIMA, ContagemParalela.GRANULARIDADE / 1024);
 
-        try (ServerSocket serverSocket = new ServerSocket(port, BACKLOG)) {
-            while (true) {
-                Socket client = serverSocket.accept();
-                System.out.printf("[R] Conexão aceita de %s:%d%n",
-                        client.getInetAddress().getHostAddress(), client.getPort());
-                new Thread(new ConnectionHandler(client)).start();
-            }
+        NoIntermediario arvore;
+        try {
+            arvore = NoIntermediario.configurado(CACHE.getOrcamentoBytes());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[R] Filhos inválidos: " + e.getMessage());
+            return;
+        }
+        if (arvore != null) {
+            System.out.printf("[R] Nó intermediário: %d filhos, %.0f%% dos chunks contados aqui%n",
+                    arvore.quantidadeFilhos(), 100 * arvore.fracaoLocal());
+        }
+
+        try (ServerSocket serverSocket = abrirServidor(new InetSocketAddress(port))) {
+            servir(serverSocket, arvore);
         } catch (IOException e) {
             System.err.println("[R] Erro no servidor: " + e.getMessage());
         }
     }
 
+    /**
+     * ServerSocket aberto por um ServerSocketChannel: as conexões aceitas têm
+     * canal, e o handler lê os chunks direto para os buffers de recepção (ver
+     * EntradaSocket). Um ServerSocket comum também serve, com uma cópia a mais.
+     */
+    static ServerSocket abrirServidor(InetSocketAddress endereco) throws IOException {
+        ServerSocketChannel canal = ServerSocketChannel.open();
+        try {
+            canal.bind(endereco, BACKLOG);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+        return canal.socket();
+    }
+
+    /** Um buffer de recepção livre, ou um novo se o pool ainda não tem (vazio, pronto para ler). */
+    private static ByteBuffer bufferRecepcao() {
+        ByteBuffer buf = BUFFERS_LIVRES.poll();
+        return buf != null ? buf.clear() : ByteBuffer.allocateDirect(TAMANHO_CHUNK_RECEPCAO);
+    }
+
+    /**
+     * Laço de aceitação. Separado do main para que testes e benchmarks
+     * possam subir receptores no mesmo processo (ex.: em loopback).
+     * Cada conexão roda numa thread virtual: ela passa quase todo o tempo
+     * bloqueada no socket, e o trabalho de CPU vai para o pool compartilhado.
+     */
+    static void servir(ServerSocket serverSocket) throws IOException {
+        servir(serverSocket, null);
+    }
+
+    /**
+     * Igual, como nó intermediário da árvore "arvore" (null: folha).
+     * Os datasets vivos (ingestão) são deste laço, compartilhados entre as
+     * conexões dele: receptores no mesmo processo não misturam as suas faixas.
+     */
+    static void servir(ServerSocket serverSocket, NoIntermediario arvore) throws IOException {
+        Thread.Builder conexoes = Thread.ofVirtual().name("receptor-conexao-", 1);
+        Map<Long, DatasetVivo> datasets = new ConcurrentHashMap<>();
+        while (true) {
+            Socket client = serverSocket.accept();
+            System.out.printf("[R] Conexão aceita de %s:%d%n",
+                    client.getInetAddress().getHostAddress(), client.getPort());
+            conexoes.start(new ConnectionHandler(client, arvore, datasets));
+        }
+    }
+
+    /** Estado de um lote do protocolo binário que ainda não recebeu Resposta. */
+    private static final class LoteEmAndamento {
+        final int requestId;
+        final long t0 = System.nanoTime();
+        final AtomicLong soma = new AtomicLong();
+        // Lotes de histograma: uma tabela por chunk, somadas só na hora de responder
+        final Queue<int[]> histogramasParciais = new ConcurrentLinkedQueue<>();
+        boolean histograma; // escrito só pelo handler, antes dos chunks
+        // Lotes marcados com OP_AGREGAR: o mesmo histograma, mas a Resposta leva um parcial por consulta
+        Agregacao.Consulta[] consultas;
+        // Lotes marcados com OP_GUARDAR: os dados vão direto para "shard", que entra no cache
+        Protocolo.ReferenciaShard referencia;
+        VetorSegmentado shard;
+        long preenchido;
+        // Nó intermediário com OP_GUARDAR: onde ficou cada chunk (ver NoIntermediario) e as cópias dos daqui
+        List<NoIntermediario.Pedaco> pedacos;
+        final Map<Long, VetorSegmentado> copiasLocais = new HashMap<>();
+        boolean pedacoSemCache; // algum chunk não pôde ser guardado: o shard não é registrado
+        volatile boolean cacheMiss; // consulta que algum filho não achou
+        // Nó intermediário: canal por filho (só o handler mexe) e as tabelas que os filhos devolveram
+        final Map<Integer, CanalFilho> filhos = new HashMap<>();
+        final Queue<long[]> histogramasFilhos = new ConcurrentLinkedQueue<>();
+        int encaminhados;
+        // 1 "ficha" enquanto o FIM_LOTE não chega + 1 por chunk ainda não contado (aqui ou num filho)
+        final AtomicInteger pendentes = new AtomicInteger(1);
+        int chunks; // escrito só pelo handler; os workers leem depois de zerar "pendentes"
+        volatile boolean falhou; // algum chunk não foi contado: a soma sairia errada
+
+        // Fases (EventosContagem.Lote): recepção e admissão no handler, fila e contagem nos workers
+        final EventosContagem.Lote evento = new EventosContagem.Lote();
+        long bytes;
+        long nanosRecepcao;
+        long nanosAdmissao;
+        final LongAdder nanosFila = new LongAdder();
+        final LongAdder nanosContagem = new LongAdder();
+        boolean doCache;
+
+        LoteEmAndamento(int requestId) {
+            this.requestId = requestId;
+            evento.begin();
+        }
+    }
+
+    /** Canal com um filho, aberto no primeiro chunk encaminhado de um lote; cada chunk é um lote lá. */
+    private static final class CanalFilho {
+        final String destino;
+        final CanalReceptor canal;
+        int lotes;
+
+        CanalFilho(String destino, CanalReceptor canal) {
+            this.destino = destino;
+            this.canal = canal;
+        }
+    }
+
     static class ConnectionHandler implements Runnable {
         private final Socket socket;
-        private final ExecutorService workerPool;
-        private final Object outputLock = new Object(); 
+        private final NoIntermediario arvore; // null: este receptor é folha
+        private final Map<Long, DatasetVivo> datasets; // datasetId -> parte deste receptor
+        // ReentrantLock e não synchronized: a escrita no socket bloqueia e a
+        // thread virtual da conexão não pode prender a thread portadora
+        private final ReentrantLock outputLock = new ReentrantLock();
         private ObjectOutputStream out; 
 
-        ConnectionHandler(Socket socket) {
+        ConnectionHandler(Socket socket, NoIntermediario arvore, Map<Long, DatasetVivo> datasets) {
             this.socket = socket;
-            int procs = Runtime.getRuntime().availableProcessors();
-            workerPool = Executors.newFixedThreadPool(Math.max(1, procs));
-            System.out.printf("[R] Handler criado (pool=%d threads)%n", procs);
+            this.arvore = arvore;
+            this.datasets = datasets;
         }
 
         @Override
         public void run() {
-            try (ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-                this.out = new ObjectOutputStream(socket.getOutputStream());
+            try {
+                // Olha os 4 primeiros bytes para decidir o protocolo sem consumi-los
+                EntradaSocket entrada = new EntradaSocket(socket, TAMANHO_BUFFER);
+                if (entrada.espiarInt() == Protocolo.MAGIC) {
+                    atenderBinario(entrada);
+                } else {
+                    atenderLegado(entrada);
+                }
+            } catch (EOFException eof) {
+                System.out.println("[R] Cliente fechou a conexão.");
+            } catch (IOException | ClassNotFoundException | InterruptedException | ExecutionException e) { 
+                System.err.println("[R] Erro no handler: " + e.getMessage());
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {}
+                System.out.println("[R] Handler finalizado.");
+            }
+        }
 
-                Object obj;
-                while ((obj = in.readObject()) != null) {
-                    
-                    // --- MUDANÇA CRUCIAL: Tratar a LISTA primeiro ---
-                    if (obj instanceof List) {
-                        @SuppressWarnings("unchecked")
-                        List<Pedido> batch = (List<Pedido>) obj; // <-- Usa Pedido.java
+        /**
+         * Caminho do Protocolo binário, em modo streaming: cada quadro Pedido é
+         * lido em pedaços do canal direto para buffers reaproveitados fora do
+         * heap e contado ali mesmo no pool assim que chega, somando num total corrente. O shard inteiro só fica em memória
+         * (fora do heap) quando o lote foi marcado para o cache com OP_GUARDAR;
+         * o FIM_LOTE (marcador de fim de stream) dispara a Resposta.
+         */
+        private void atenderBinario(EntradaSocket entrada) throws IOException, InterruptedException {
+            DataInputStream in = new DataInputStream(entrada);
+            DataOutputStream dataOut = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), TAMANHO_BUFFER));
 
-                        if (batch.isEmpty()) {
-                            System.out.println("[R] Recebido batch vazio.");
-                            // Envia uma resposta de "0" para destravar o cliente
-                            synchronized(outputLock) {
-                                out.writeObject(new Resposta(0)); // <-- Usa Resposta.java
-                                out.flush();
-                                out.reset();
-                            }
+            byte versaoCliente = Protocolo.lerHandshake(in);
+            byte versao = (byte) Math.min(versaoCliente, Protocolo.VERSAO);
+            if (versao < Protocolo.VERSAO_MINIMA) {
+                // Anuncia a própria versão e fecha: o cliente cai para a serialização Java
+                Protocolo.escreverHandshake(dataOut, Protocolo.VERSAO);
+                System.out.printf("[R] Cliente com protocolo binário v%d não suportado.%n", versaoCliente);
+                return;
+            }
+            Protocolo.escreverHandshake(dataOut, versao);
+            if (versao >= Protocolo.VERSAO_ORCAMENTO) {
+                // Informa quanto consegue manter residente, para o Distribuidor planejar vetor e divisão;
+                // um nó intermediário informa o da subárvore (-1: algum filho não informou)
+                long orcamento = arvore != null ? arvore.getOrcamentoSubarvore() : CACHE.getOrcamentoBytes();
+                Protocolo.escreverOrcamento(dataOut, orcamento);
+            }
+            System.out.printf("[R] Protocolo binário negociado (versão %d)%n", versao);
+
+            // Lotes abertos nesta conexão (acessado só por esta thread)
+            Map<Integer, LoteEmAndamento> lotes = new HashMap<>();
+            try {
+                lerQuadros(entrada, in, dataOut, lotes);
+            } finally {
+                // lotes que não chegaram ao FIM_LOTE: solta os canais com os filhos
+                for (LoteEmAndamento lote : lotes.values()) {
+                    for (CanalFilho f : lote.filhos.values()) {
+                        try { f.canal.close(); } catch (IOException ignored) {}
+                    }
+                }
+            }
+        }
+
+        private void lerQuadros(EntradaSocket entrada, DataInputStream in, DataOutputStream dataOut,
+                                Map<Integer, LoteEmAndamento> lotes) throws IOException, InterruptedException {
+            while (true) {
+                Protocolo.Quadro q = Protocolo.lerCabecalho(in);
+                BYTES_RECEBIDOS.add(Protocolo.TAMANHO_CABECALHO + q.tamanhoPayload);
+                if (q.opcode == Protocolo.OP_PEDIDO || q.opcode == Protocolo.OP_HISTOGRAMA) {
+                    LoteEmAndamento lote = lotes.computeIfAbsent(q.requestId, LoteEmAndamento::new);
+                    lote.histograma = q.opcode == Protocolo.OP_HISTOGRAMA;
+                    int restante = q.tamanhoPayload;
+                    VetorSegmentado shard = lote.shard;
+                    Protocolo.ReferenciaShard ref = lote.referencia;
+                    if (ref != null && lote.preenchido + restante > ref.fim - ref.inicio) {
+                        throw new StreamCorruptedException("Dados além do shard marcado para o cache");
+                    }
+                    while (restante > 0) {
+                        int len = Math.min(restante, TAMANHO_CHUNK_RECEPCAO);
+                        int filho = arvore != null ? arvore.destinoDoProximoChunk() : -1;
+                        if (filho >= 0) {
+                            encaminhar(entrada, lote, filho, len, q.procurado);
+                            restante -= len;
                             continue;
                         }
-
-                        System.out.printf("[R] Batch de %d pedidos recebido. Processando em paralelo...%n", batch.size());
+                        // Espera vaga no pool antes de ler: com a fila cheia o socket não é lido
+                        admitir(lote);
+                        ByteBuffer buf = bufferRecepcao().limit(len);
                         long t0 = System.nanoTime();
-
-                        // --- Processar o batch em paralelo ---
-                        List<Future<Integer>> batchFutures = new ArrayList<>();
-                        for (Pedido p : batch) {
-                            // Envia cada pedido do batch para o pool de threads
-                            batchFutures.add(workerPool.submit(() -> {
-                                return p.contar(); // <-- USA O MÉTODO p.contar()
-                            }));
+                        try {
+                            entrada.lerPara(buf);
+                        } catch (IOException e) {
+                            BUFFERS_LIVRES.add(buf);
+                            ADMISSAO.release();
+                            throw e;
+                        }
+                        buf.flip();
+                        long recepcao = System.nanoTime() - t0;
+                        lote.nanosRecepcao += recepcao;
+                        lote.bytes += len;
+                        TEMPO_RECEPCAO.registrar(recepcao);
+                        Runnable aoContar = null;
+                        if (shard != null) {
+                            // lote marcado para o cache: o chunk também é copiado para o shard fora do heap
+                            long destino = lote.preenchido;
+                            lote.preenchido += len;
+                            aoContar = () -> shard.copiarDe(buf, destino);
+                        } else if (lote.pedacos != null) {
+                            // nó intermediário: o chunk contado aqui vira um pedaço no cache deste nó
+                            long inicio = ref.inicio + lote.preenchido;
+                            lote.preenchido += len;
+                            lote.pedacos.add(new NoIntermediario.Pedaco(inicio, inicio + len, -1));
+                            if (CACHE.cabe(len)) {
+                                VetorSegmentado copia = VetorSegmentado.alocar(len);
+                                lote.copiasLocais.put(inicio, copia);
+                                aoContar = () -> copia.copiarDe(buf, 0);
+                            } else {
+                                lote.pedacoSemCache = true;
+                            }
+                        }
+                        submeterChunk(dataOut, lote, buf, q.procurado, aoContar, true);
+                        restante -= len;
+                    }
+                } else if (q.opcode == Protocolo.OP_GUARDAR) {
+                    Protocolo.ReferenciaShard ref = Protocolo.lerReferencia(in, q);
+                    LoteEmAndamento lote = lotes.computeIfAbsent(q.requestId, LoteEmAndamento::new);
+                    long tamanho = ref.fim - ref.inicio;
+                    if (arvore != null) {
+                        // nó intermediário: cada chunk fica guardado onde for contado, aqui ou no filho
+                        if (tamanho > 0) {
+                            lote.referencia = ref;
+                            lote.pedacos = new ArrayList<>();
+                        }
+                    } else if (tamanho > 0 && CACHE.cabe(tamanho)) {
+                        lote.referencia = ref;
+                        lote.shard = VetorSegmentado.alocar(tamanho);
+                    }
+                } else if (q.opcode == Protocolo.OP_AGREGAR) {
+                    // Todas as consultas do lote saem de uma única passada (o histograma dos chunks)
+                    LoteEmAndamento lote = lotes.computeIfAbsent(q.requestId, LoteEmAndamento::new);
+                    lote.consultas = Protocolo.lerAgregar(in, q);
+                    lote.histograma = true;
+                } else if (q.opcode == Protocolo.OP_CONSULTA) {
+                    Protocolo.ReferenciaShard ref = Protocolo.lerReferencia(in, q);
+                    // consultas agregadas chegaram antes num OP_AGREGAR com o mesmo id
+                    LoteEmAndamento lote = lotes.remove(q.requestId);
+                    if (lote == null) lote = new LoteEmAndamento(q.requestId);
+                    if (ref.tipo == Protocolo.TIPO_AGREGADOS && lote.consultas == null) {
+                        throw new StreamCorruptedException("Consulta agregada sem OP_AGREGAR: " + q.requestId);
+                    }
+                    lote.histograma = ref.tipo != Protocolo.TIPO_CONTAGEM;
+                    lote.doCache = true;
+                    if (arvore != null) {
+                        consultarSubarvore(dataOut, lote, ref, q.procurado);
+                        continue;
+                    }
+                    VetorSegmentado shard = CACHE.obter(ref.datasetId, ref.inicio, ref.fim);
+                    if (shard == null) {
+                        responderCacheMiss(dataOut, q.requestId);
+                        continue;
+                    }
+                    // Cache hit: conta o shard residente sem nenhum dado pela rede
+                    submeterShard(dataOut, lote, shard, q.procurado);
+                    if (lote.pendentes.decrementAndGet() == 0) responder(dataOut, lote);
+                } else if (q.opcode == Protocolo.OP_FIM_LOTE) {
+                    // Solta a ficha do lote; quem zerar os pendentes (aqui ou no
+                    // último chunk) envia a Resposta, sem travar a leitura do próximo lote
+                    LoteEmAndamento lote = lotes.remove(q.requestId);
+                    if (lote == null) lote = new LoteEmAndamento(q.requestId); // lote vazio
+                    aguardarFilhos(dataOut, lote);
+                    if (lote.pendentes.decrementAndGet() == 0) responder(dataOut, lote);
+                } else if (q.opcode == Protocolo.OP_INGERIR) {
+                    // Aplicado aqui, na ordem da sessão: uma consulta que vier depois já vê a escrita
+                    Protocolo.TrechoIngerido t = Protocolo.lerIngerir(in, q);
+                    DatasetVivo ds = datasets.computeIfAbsent(t.datasetId, id -> new DatasetVivo());
+                    ByteBuffer buf = bufferRecepcao();
+                    try {
+                        for (int feito = 0; feito < t.tamanho; ) {
+                            int n = Math.min(buf.capacity(), t.tamanho - feito);
+                            buf.clear().limit(n);
+                            entrada.lerPara(buf);
+                            ds.escrever(t.posicao + feito, buf.flip());
+                            feito += n;
                         }
+                    } catch (IllegalArgumentException e) {
+                        throw new StreamCorruptedException(e.getMessage());
+                    } finally {
+                        BUFFERS_LIVRES.add(buf);
+                    }
+                } else if (q.opcode == Protocolo.OP_CONTAGEM_MANTIDA) {
+                    // Responde das contagens mantidas, sem tocar nos dados
+                    Protocolo.ReferenciaShard ref = Protocolo.lerContagemMantida(in, q);
+                    DatasetVivo ds = datasets.get(ref.datasetId);
+                    outputLock.lock();
+                    try {
+                        if (ref.tipo == Protocolo.TIPO_HISTOGRAMA) {
+                            long[] tabela = ds != null ? ds.histograma() : new long[Histograma.TAMANHO];
+                            Protocolo.escreverRespostaHistograma(dataOut, q.requestId, new RespostaHistograma(tabela));
+                        } else {
+                            long contagem = ds != null ? ds.contar(q.procurado) : 0;
+                            Protocolo.escreverResposta(dataOut, q.requestId, new Resposta(contagem));
+                        }
+                        dataOut.flush();
+                    } finally {
+                        outputLock.unlock();
+                    }
+                } else if (q.opcode == Protocolo.OP_ENCERRAMENTO) {
+                    System.out.println("[R] ComunicadoEncerramento recebido. Fechando conexão atual.");
+                    break;
+                } else {
+                    System.out.println("[R] Quadro desconhecido recebido: opcode " + q.opcode);
+                    Protocolo.pularPayload(in, q);
+                }
+            }
+        }
+
+        /**
+         * Lê um chunk e o repassa ao filho "indice" como um lote próprio (de
+         * histograma, se o lote daqui é de histograma ou agregação), com o
+         * OP_GUARDAR do pedaço se o lote daqui foi marcado para o cache. O
+         * buffer de recepção vai ao filho como fatia, sem cópia, e conta na
+         * ADMISSAO como um chunk contado aqui. O envio é síncrono: um filho
+         * lento segura a leitura deste socket, e com ela o pai.
+         */
+        private void encaminhar(EntradaSocket entrada, LoteEmAndamento lote, int indice, int len, byte procurado)
+                throws IOException, InterruptedException {
+            admitir(lote);
+            ByteBuffer buf = bufferRecepcao().limit(len);
+            try {
+                long t0 = System.nanoTime();
+                entrada.lerPara(buf);
+                buf.flip();
+                long recepcao = System.nanoTime() - t0;
+                lote.nanosRecepcao += recepcao;
+                lote.bytes += len;
+                TEMPO_RECEPCAO.registrar(recepcao);
+
+                CanalFilho f = canalFilho(lote, indice);
+                VetorSegmentado chunk = VetorSegmentado.de(buf);
+                if (lote.histograma) {
+                    f.canal.iniciarLoteHistograma(chunk);
+                } else {
+                    f.canal.iniciarLote(chunk, procurado);
+                }
+                if (lote.pedacos != null) {
+                    long inicio = lote.referencia.inicio + lote.preenchido;
+                    lote.preenchido += len;
+                    lote.pedacos.add(new NoIntermediario.Pedaco(inicio, inicio + len, indice));
+                    if (f.canal.suportaCache()) {
+                        f.canal.marcarParaCache(lote.referencia.datasetId, new Distribuidor.Intervalo(inicio, inicio + len));
+                    } else {
+                        lote.pedacoSemCache = true;
+                    }
+                }
+                f.canal.enviar(new Distribuidor.Intervalo(0, len));
+                f.canal.fecharLote();
+                f.lotes++;
+                lote.encaminhados++;
+                lote.pendentes.incrementAndGet();
+            } finally {
+                BUFFERS_LIVRES.add(buf);
+                ADMISSAO.release();
+            }
+        }
 
-                        // Coleta os resultados do batch
-                        int somaDoBatch = 0;
-                        for (Future<Integer> f : batchFutures) {
-                            somaDoBatch += f.get(); // Espera cada sub-contagem do batch terminar
+        /** O canal do lote com o filho "indice", aberto na primeira vez. */
+        private CanalFilho canalFilho(LoteEmAndamento lote, int indice) throws IOException {
+            CanalFilho f = lote.filhos.get(indice);
+            if (f == null) {
+                String destino = arvore.filho(indice);
+                f = new CanalFilho(destino, CanalReceptor.abrir(destino));
+                lote.filhos.put(indice, f);
+            }
+            return f;
+        }
+
+        /**
+         * OP_CONSULTA num nó intermediário: conta os pedaços do shard que
+         * estão no cache daqui e manda um OP_CONSULTA a cada filho pelos
+         * pedaços dele; as respostas se somam como as de um lote encaminhado.
+         * Se um pedaço daqui foi descartado responde cache miss na hora; se é
+         * um filho que não acha o dele, a resposta do lote vira cache miss.
+         */
+        private void consultarSubarvore(DataOutputStream dataOut, LoteEmAndamento lote,
+                                        Protocolo.ReferenciaShard ref, byte procurado)
+                throws IOException, InterruptedException {
+            NoIntermediario.Pedaco[] pedacos = arvore.shardEmCache(ref.datasetId, ref.inicio, ref.fim);
+            VetorSegmentado[] locais = pedacos != null ? new VetorSegmentado[pedacos.length] : null;
+            for (int i = 0; pedacos != null && i < pedacos.length; i++) {
+                if (pedacos[i].filho >= 0) continue;
+                locais[i] = CACHE.obter(ref.datasetId, pedacos[i].inicio, pedacos[i].fim);
+                if (locais[i] == null) {
+                    arvore.esquecerShard(ref.datasetId, ref.inicio, ref.fim);
+                    pedacos = null;
+                }
+            }
+            if (pedacos == null) {
+                responderCacheMiss(dataOut, lote.requestId);
+                return;
+            }
+            for (int i = 0; i < pedacos.length; i++) {
+                NoIntermediario.Pedaco p = pedacos[i];
+                if (p.filho < 0) {
+                    submeterShard(dataOut, lote, locais[i], procurado);
+                    continue;
+                }
+                CanalFilho f = canalFilho(lote, p.filho);
+                f.canal.enviarConsulta(ref.datasetId, new Distribuidor.Intervalo(p.inicio, p.fim), procurado,
+                        lote.histograma);
+                f.lotes++;
+                lote.encaminhados++;
+                lote.pendentes.incrementAndGet();
+            }
+            aguardarFilhos(dataOut, lote);
+            if (lote.pendentes.decrementAndGet() == 0) responder(dataOut, lote);
+        }
+
+        /** Conta um shard residente, um segmento contíguo por vez (o fork/join divide cada um). */
+        private void submeterShard(DataOutputStream dataOut, LoteEmAndamento lote, VetorSegmentado shard,
+                                   byte procurado) throws InterruptedException {
+            lote.bytes += shard.tamanho();
+            for (long off = 0; off < shard.tamanho(); ) {
+                int len = shard.contiguosAPartirDe(off);
+                admitir(lote);
+                submeterChunk(dataOut, lote, shard.fatia(off, len), procurado, null, false);
+                off += len;
+            }
+        }
+
+        private void responderCacheMiss(DataOutputStream dataOut, int requestId) throws IOException {
+            outputLock.lock();
+            try {
+                Protocolo.escreverCacheMiss(dataOut, requestId);
+                dataOut.flush();
+            } finally {
+                outputLock.unlock();
+            }
+        }
+
+        /**
+         * Uma thread virtual por filho do lote espera as respostas dele e as
+         * soma ao lote; quem zerar "pendentes" envia a Resposta. Se um filho
+         * falha a soma ficaria incompleta: a conexão com o pai é derrubada e
+         * ele reatribui os blocos.
+         */
+        private void aguardarFilhos(DataOutputStream dataOut, LoteEmAndamento lote) {
+            for (CanalFilho f : lote.filhos.values()) {
+                Thread.ofVirtual().name("receptor-filho-" + f.destino).start(() -> {
+                    try (CanalReceptor canal = f.canal) {
+                        for (int i = 0; i < f.lotes; i++) {
+                            CanalReceptor.RespostaRecebida r = canal.receberResposta();
+                            if (r.cacheMiss) {
+                                lote.cacheMiss = true;
+                            } else if (r.histograma != null) {
+                                lote.histogramasFilhos.add(r.histograma);
+                            } else {
+                                lote.soma.addAndGet(r.contagem);
+                            }
+                            if (lote.pendentes.decrementAndGet() == 0) responder(dataOut, lote);
                         }
-                        
+                    } catch (IOException | ClassNotFoundException e) {
+                        System.err.printf("[R] Filho %s falhou: %s. Derrubando a conexão com o pai.%n",
+                                f.destino, e.getMessage());
+                        try { socket.close(); } catch (IOException ignored) {}
+                    }
+                });
+            }
+        }
+
+        /**
+         * Conta (ou monta o histograma de) "dados" no pool. Buffers diretos
+         * (shards fora do heap) são lidos no lugar. "aoContar", se houver, roda
+         * só depois de uma contagem bem-sucedida (ex.: copiar o chunk para o
+         * shard do cache); com "doPool", "dados" volta a BUFFERS_LIVRES no fim,
+         * mesmo com falha. O chamador já tem uma permissão de ADMISSAO, devolvida aqui ao fim do chunk.
+         * O último chunk a terminar com o lote já fechado envia a Resposta; um
+         * chunk que falha marca o lote, e o responder derruba a conexão.
+         */
+        private void submeterChunk(DataOutputStream dataOut, LoteEmAndamento lote, ByteBuffer dados,
+                                   byte procurado, Runnable aoContar, boolean doPool) {
+            boolean histograma = lote.histograma;
+            lote.pendentes.incrementAndGet();
+            lote.chunks++;
+            long submetido = System.nanoTime();
+            WORKER_POOL.execute(() -> {
+                long inicio = System.nanoTime();
+                lote.nanosFila.add(inicio - submetido);
+                TEMPO_FILA.registrar(inicio - submetido);
+                try {
+                    if (histograma) {
+                        // cada chunk produz a sua tabela; a soma fica para o responder
+                        lote.histogramasParciais.add(ContagemParalela.histograma(dados));
+                    } else {
+                        lote.soma.addAndGet(ContagemParalela.contar(dados, procurado));
+                    }
+                    if (aoContar != null) aoContar.run();
+                } catch (RuntimeException | Error e) {
+                    lote.falhou = true;
+                    System.err.printf("[R] Falha ao contar um chunk do lote %d: %s%n", lote.requestId, e);
+                } finally {
+                    if (doPool) BUFFERS_LIVRES.add(dados);
+                    ADMISSAO.release();
+                    long contagem = System.nanoTime() - inicio;
+                    lote.nanosContagem.add(contagem);
+                    TEMPO_CONTAGEM.registrar(contagem);
+                    // mesmo com falha: senão o lote nunca responde e o distribuidor só percebe no prazo
+                    if (lote.pendentes.decrementAndGet() == 0) responder(dataOut, lote);
+                }
+            });
+        }
+
+        /** Espera uma permissão de ADMISSAO, somando a espera ao lote. */
+        private void admitir(LoteEmAndamento lote) throws InterruptedException {
+            long t0 = System.nanoTime();
+            ADMISSAO.acquire();
+            long espera = System.nanoTime() - t0;
+            lote.nanosAdmissao += espera;
+            TEMPO_ADMISSAO.registrar(espera);
+        }
+
+        /** Fecha as medidas do lote: métrica, evento JFR e o texto de fases para o log. */
+        private String registrarLote(LoteEmAndamento lote, long t1) {
+            TEMPO_LOTE.registrar(t1 - lote.t0);
+            if (lote.evento.shouldCommit()) {
+                lote.evento.requestId = lote.requestId;
+                lote.evento.chunks = lote.chunks;
+                lote.evento.bytes = lote.bytes;
+                lote.evento.histograma = lote.histograma;
+                lote.evento.doCache = lote.doCache;
+                lote.evento.recepcaoNanos = lote.nanosRecepcao;
+                lote.evento.admissaoNanos = lote.nanosAdmissao;
+                lote.evento.filaNanos = lote.nanosFila.sum();
+                lote.evento.contagemNanos = lote.nanosContagem.sum();
+                lote.evento.commit();
+            }
+            String fases = String.format("recepção %.3f, admissão %.3f, fila %.3f, contagem %.3f ms",
+                    lote.nanosRecepcao / 1e6, lote.nanosAdmissao / 1e6,
+                    lote.nanosFila.sum() / 1e6, lote.nanosContagem.sum() / 1e6);
+            return lote.encaminhados == 0 ? fases
+                    : fases + String.format("; mais %d chunks em %d filhos", lote.encaminhados, lote.filhos.size());
+        }
+
+        /**
+         * Envia a Resposta de um lote cujos chunks já foram todos contados. Se
+         * algum falhou não há soma certa para enviar: a conexão é derrubada, e o
+         * Distribuidor reatribui os blocos em voo na hora, como na queda de um receptor.
+         */
+        private void responder(DataOutputStream dataOut, LoteEmAndamento lote) {
+            if (lote.falhou) {
+                System.err.printf("[R] Lote %d com chunk sem contagem. Derrubando a conexão.%n", lote.requestId);
+                try { socket.close(); } catch (IOException ignored) {}
+                return;
+            }
+            Protocolo.ReferenciaShard ref = lote.referencia;
+            if (lote.shard != null && lote.preenchido == lote.shard.tamanho()) {
+                CACHE.guardar(ref.datasetId, ref.inicio, lote.shard);
+            }
+            if (lote.pedacos != null && !lote.pedacoSemCache && lote.preenchido == ref.fim - ref.inicio) {
+                lote.copiasLocais.forEach((inicio, copia) -> CACHE.guardar(ref.datasetId, inicio, copia));
+                arvore.registrarShard(ref.datasetId, ref.inicio, ref.fim, lote.pedacos);
+            }
+            try {
+                if (lote.cacheMiss) {
+                    System.out.printf("[R] Consulta %d: pedaço do shard ausente num filho, cache miss%n", lote.requestId);
+                    responderCacheMiss(dataOut, lote.requestId);
+                    return;
+                }
+                if (lote.histograma) {
+                    long[] total = new long[Histograma.TAMANHO];
+                    for (int[] parcial : lote.histogramasParciais) {
+                        Histograma.somar(total, parcial);
+                    }
+                    for (long[] doFilho : lote.histogramasFilhos) {
+                        Histograma.somar(total, doFilho);
+                    }
+                    if (lote.consultas != null) {
+                        Agregacao.Parcial[] parciais = Agregacao.avaliar(lote.consultas, total);
                         long t1 = System.nanoTime();
-                        System.out.printf("[R] Contagem do batch completa: %d (tempo %.3f ms)%n",
-                                somaDoBatch, (t1 - t0) / 1_000_000.0);
+                        System.out.printf("[R] %d consultas agregadas em %d chunks (tempo %.3f ms; %s)%n",
+                                lote.consultas.length, lote.chunks, (t1 - lote.t0) / 1_000_000.0,
+                                registrarLote(lote, t1));
+                        outputLock.lock();
+                        try {
+                            Protocolo.escreverRespostaAgregados(dataOut, lote.requestId, parciais);
+                            dataOut.flush();
+                        } finally {
+                            outputLock.unlock();
+                        }
+                        return;
+                    }
+                    long t1 = System.nanoTime();
+                    System.out.printf("[R] Histograma de %d chunks calculado (tempo %.3f ms; %s)%n",
+                            lote.chunks, (t1 - lote.t0) / 1_000_000.0, registrarLote(lote, t1));
+                    outputLock.lock();
+                    try {
+                        Protocolo.escreverRespostaHistograma(dataOut, lote.requestId, new RespostaHistograma(total));
+                        dataOut.flush();
+                    } finally {
+                        outputLock.unlock();
+                    }
+                    return;
+                }
+
+                long soma = lote.soma.get();
+                long t1 = System.nanoTime();
+                System.out.printf("[R] Stream de %d chunks contado: %d (tempo %.3f ms; %s)%n",
+                        lote.chunks, soma, (t1 - lote.t0) / 1_000_000.0, registrarLote(lote, t1));
+                outputLock.lock();
+                try {
+                    Protocolo.escreverResposta(dataOut, lote.requestId, new Resposta(soma));
+                    dataOut.flush();
+                } finally {
+                    outputLock.unlock();
+                }
+            } catch (IOException e) {
+                System.err.println("[R] Erro ao enviar Resposta: " + e.getMessage());
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        /** Caminho antigo: List<Pedido> via Java serialization. */
+        private void atenderLegado(InputStream rawIn)
+                throws IOException, ClassNotFoundException, InterruptedException, ExecutionException {
+            try (ObjectInputStream in = new ObjectInputStream(rawIn)) {
+                this.out = new ObjectOutputStream(socket.getOutputStream());
+
+                Object obj;
+                while ((obj = lerObjeto(in)) != null) {
+                    
+                    // --- MUDANÇA CRUCIAL: Tratar a LISTA primeiro ---
+                    if (obj instanceof List) {
+                        @SuppressWarnings("unchecked")
+                        List<Pedido> batch = (List<Pedido>) obj; // <-- Usa Pedido.java
 
-                        // Envia UMA resposta com o total
-                        Resposta resp = new Resposta(somaDoBatch); // <-- Usa Resposta.java
-                        synchronized (outputLock) {
+                        // Envia UMA resposta com o total (um batch vazio responde "0" para destravar o cliente)
+                        Resposta resp = new Resposta(processarLote(batch)); // <-- Usa Resposta.java
+                        outputLock.lock();
+                        try {
                             out.writeObject(resp);
                             out.flush();
                             out.reset();
+                        } finally {
+                            outputLock.unlock();
                         }
                     }
                     
@@ -103,18 +766,49 @@ public class ReceptorServer {
                         System.out.println("[R] Objeto desconhecido recebido: " + obj.getClass().getName());
                     }
                 }
-            } catch (EOFException eof) {
-                System.out.println("[R] Cliente fechou a conexão.");
-            } catch (IOException | ClassNotFoundException | InterruptedException | ExecutionException e) { 
-                System.err.println("[R] Erro no handler: " + e.getMessage());
-            } finally {
-                try {
-                    socket.close();
-                } catch (IOException ignored) {}
-                workerPool.shutdownNow();
-                System.out.println("[R] Handler finalizado.");
             }
         }
+
+        /** readObject medido: no legado a desserialização é uma fase à parte. */
+        private Object lerObjeto(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            long t0 = System.nanoTime();
+            Object obj = in.readObject();
+            TEMPO_DESSERIALIZACAO.registrar(System.nanoTime() - t0);
+            return obj;
+        }
+
+        /** Conta um batch de pedidos em paralelo no pool e devolve a soma. */
+        private long processarLote(List<Pedido> batch) throws InterruptedException, ExecutionException {
+            if (batch.isEmpty()) {
+                System.out.println("[R] Recebido batch vazio.");
+                return 0;
+            }
+
+            System.out.printf("[R] Batch de %d pedidos recebido. Processando em paralelo...%n", batch.size());
+            long t0 = System.nanoTime();
+
+            // --- Processar o batch em paralelo ---
+            List<Future<Long>> batchFutures = new ArrayList<>();
+            for (Pedido p : batch) {
+                // Envia cada pedido do batch para o pool; dentro dele o pedido
+                // ainda é dividido em fatias, então um pedido grande usa todos os núcleos
+                byte[] numeros = p.getNumeros();
+                batchFutures.add(WORKER_POOL.submit(() ->
+                        ContagemParalela.contar(numeros, 0, numeros.length, p.getProcurado())));
+            }
+
+            // Coleta os resultados do batch
+            long somaDoBatch = 0;
+            for (Future<Long> f : batchFutures) {
+                somaDoBatch += f.get(); // Espera cada sub-contagem do batch terminar
+            }
+            
+            long t1 = System.nanoTime();
+            TEMPO_LOTE.registrar(t1 - t0);
+            System.out.printf("[R] Contagem do batch completa: %d (tempo %.3f ms)%n",
+                    somaDoBatch, (t1 - t0) / 1_000_000.0);
+            return somaDoBatch;
+        }
         
         // O método "contarEmParalelo" foi removido daqui pois não é mais necessário.
     }
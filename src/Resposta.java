@@ -1,14 +1,34 @@
+import java.io.*;
+
 public class Resposta extends Comunicado {
     private static final long serialVersionUID = 1L;
-    // Corrigido para usar o tipo primitivo int 
-    private final int contagem; 
+    // Na serialização Java o campo continua sendo "int contagem", para que
+    // distribuidores e receptores antigos continuem se entendendo no caminho legado
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("contagem", int.class)
+    };
+    // long: datasets com mais de 2^31 elementos não estouram a contagem
+    private long contagem; 
 
-    public Resposta(int contagem) {
+    public Resposta(long contagem) {
         this.contagem = contagem;
     }
 
-    // Corrigido para retornar o tipo primitivo int [cite: 35]
-    public int getContagem() {
+    public long getContagem() {
         return contagem;
     }
-}
\ No newline at end of file
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (contagem > Integer.MAX_VALUE) {
+            throw new InvalidObjectException("Contagem " + contagem
+                    + " não cabe no formato serializado (int); use o protocolo binário");
+        }
+        ObjectOutputStream.PutField campos = out.putFields();
+        campos.put("contagem", (int) contagem);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        contagem = in.readFields().get("contagem", 0);
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Resposta com a tabela completa de contagens: uma posição para cada um
+ * dos 256 valores de byte (índice = valor & 0xFF).
+ */
+public class RespostaHistograma extends Comunicado {
+    private static final long serialVersionUID = 2L;
+    private final long[] contagens;
+
+    public RespostaHistograma(long[] contagens) {
+        if (contagens.length != Histograma.TAMANHO) {
+            throw new IllegalArgumentException("Histograma deve ter " + Histograma.TAMANHO + " posições");
+        }
+        this.contagens = contagens;
+    }
+
+    public long[] getContagens() {
+        return contagens;
+    }
+
+    // contagem de um valor específico, sem nova passada sobre os dados
+    public long getContagem(byte procurado) {
+        return contagens[procurado & 0xFF];
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Vetor de bytes indexado por long, dividido em segmentos de até
+ * TAMANHO_SEGMENTO bytes (-Dsegmento.mb, potência de 2, padrão 1024).
+ *
+ * Alocado com alocar(), os segmentos são ByteBuffers diretos (fora do heap),
+ * então o tamanho do dataset não é limitado pelo heap da JVM nem pelo
+ * tamanho máximo de um byte[]. A memória direta é devolvida quando o
+ * vetor é coletado pelo GC.
+ *
+ * de(byte[]) embrulha um array comum sem copiar, para o código que já
+ * tem o vetor no heap; de(ByteBuffer) faz o mesmo com um buffer (ex.: um
+ * buffer de recepção do receptor). mapear() usa um arquivo de dataset como vetor, via
+ * FileChannel.map: nada é lido nem gerado antes, as páginas vêm do page
+ * cache do sistema conforme são tocadas.
+ */
+public final class VetorSegmentado {
+
+    public static final int TAMANHO_SEGMENTO = tamanhoSegmentoConfigurado();
+    private static final int DESLOCAMENTO = Integer.numberOfTrailingZeros(TAMANHO_SEGMENTO);
+    private static final long MASCARA = TAMANHO_SEGMENTO - 1;
+
+    private final ByteBuffer[] segmentos;
+    private final long tamanho;
+
+    private VetorSegmentado(ByteBuffer[] segmentos, long tamanho) {
+        this.segmentos = segmentos;
+        this.tamanho = tamanho;
+    }
+
+    private static int tamanhoSegmentoConfigurado() {
+        int mb = Integer.getInteger("segmento.mb", 1024);
+        if (mb <= 0 || mb > 1024 || Integer.bitCount(mb) != 1) {
+            System.err.printf("[Vetor] segmento.mb=%d inválido (potência de 2 até 1024). Usando 1024.%n", mb);
+            mb = 1024;
+        }
+        return mb * 1024 * 1024;
+    }
+
+    /** Aloca um vetor fora do heap, zerado. */
+    public static VetorSegmentado alocar(long tamanho) {
+        if (tamanho < 0) throw new IllegalArgumentException("Tamanho negativo: " + tamanho);
+        int n = (int) ((tamanho + MASCARA) >>> DESLOCAMENTO);
+        ByteBuffer[] segmentos = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long restante = tamanho - ((long) i << DESLOCAMENTO);
+            segmentos[i] = ByteBuffer.allocateDirect((int) Math.min(TAMANHO_SEGMENTO, restante));
+        }
+        return new VetorSegmentado(segmentos, tamanho);
+    }
+
+    /**
+     * Mapeia os primeiros "tamanho" bytes de um arquivo, só para leitura
+     * (set e copiarDe lançam ReadOnlyBufferException).
+     * @throws IOException se o arquivo não existe ou é menor que "tamanho".
+     */
+    public static VetorSegmentado mapear(Path arquivo, long tamanho) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (canal.size() < tamanho) {
+                throw new IOException(arquivo + " tem " + canal.size() + " bytes, menos que " + tamanho);
+            }
+            return mapear(canal, FileChannel.MapMode.READ_ONLY, tamanho);
+        }
+    }
+
+    /** Cria (ou trunca) um arquivo de "tamanho" bytes e o mapeia para escrita. */
+    public static VetorSegmentado criarArquivo(Path arquivo, long tamanho) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return mapear(canal, FileChannel.MapMode.READ_WRITE, tamanho); // o map estende o arquivo
+        }
+    }
+
+    // O mapeamento continua válido depois que o canal é fechado
+    private static VetorSegmentado mapear(FileChannel canal, FileChannel.MapMode modo, long tamanho)
+            throws IOException {
+        if (tamanho < 0) throw new IllegalArgumentException("Tamanho negativo: " + tamanho);
+        int n = (int) ((tamanho + MASCARA) >>> DESLOCAMENTO);
+        ByteBuffer[] segmentos = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long inicio = (long) i << DESLOCAMENTO;
+            segmentos[i] = canal.map(modo, inicio, Math.min(TAMANHO_SEGMENTO, tamanho - inicio));
+        }
+        return new VetorSegmentado(segmentos, tamanho);
+    }
+
+    /** Embrulha um array do heap, sem cópia. */
+    public static VetorSegmentado de(byte[] vetor) {
+        int n = (vetor.length + TAMANHO_SEGMENTO - 1) / TAMANHO_SEGMENTO;
+        ByteBuffer[] segmentos = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            int inicio = i * TAMANHO_SEGMENTO;
+            segmentos[i] = ByteBuffer.wrap(vetor, inicio, Math.min(TAMANHO_SEGMENTO, vetor.length - inicio)).slice();
+        }
+        return new VetorSegmentado(segmentos, vetor.length);
+    }
+
+    /** Embrulha os bytes restantes de "dados", sem cópia (a posição de "dados" não muda). */
+    public static VetorSegmentado de(ByteBuffer dados) {
+        int len = dados.remaining();
+        int n = (len + TAMANHO_SEGMENTO - 1) / TAMANHO_SEGMENTO;
+        ByteBuffer[] segmentos = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            int inicio = i * TAMANHO_SEGMENTO;
+            segmentos[i] = dados.slice(dados.position() + inicio, Math.min(TAMANHO_SEGMENTO, len - inicio));
+        }
+        return new VetorSegmentado(segmentos, len);
+    }
+
+    /**
+     * Limite de memória direta desta JVM: -XX:MaxDirectMemorySize, ou o
+     * heap máximo quando a opção não foi definida (padrão do HotSpot).
+     */
+    public static long limiteMemoriaDireta() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotspot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            long valor = Long.parseLong(hotspot.getVMOption("MaxDirectMemorySize").getValue());
+            if (valor > 0) return valor;
+        } catch (RuntimeException ignored) {
+            // JVM sem HotSpotDiagnosticMXBean: usa o padrão
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    public long tamanho() {
+        return tamanho;
+    }
+
+    public byte get(long i) {
+        return segmentos[(int) (i >>> DESLOCAMENTO)].get((int) (i & MASCARA));
+    }
+
+    public void set(long i, byte v) {
+        segmentos[(int) (i >>> DESLOCAMENTO)].put((int) (i & MASCARA), v);
+    }
+
+    /** Quantos bytes a partir de "i" ficam no mesmo segmento (e dentro do vetor). */
+    public int contiguosAPartirDe(long i) {
+        return (int) Math.min(TAMANHO_SEGMENTO - (i & MASCARA), tamanho - i);
+    }
+
+    /**
+     * Visão (sem cópia) de [inicio, inicio + len). O intervalo não pode
+     * atravessar a fronteira de um segmento; ver contiguosAPartirDe().
+     */
+    public ByteBuffer fatia(long inicio, int len) {
+        if (len > contiguosAPartirDe(inicio)) {
+            throw new IndexOutOfBoundsException("Fatia atravessa a fronteira de segmento: " + inicio + "+" + len);
+        }
+        return segmentos[(int) (inicio >>> DESLOCAMENTO)].slice((int) (inicio & MASCARA), len);
+    }
+
+    /** Copia [inicio, inicio + len) para "destino" a partir de "off". */
+    public void copiarPara(long inicio, byte[] destino, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, contiguosAPartirDe(inicio));
+            segmentos[(int) (inicio >>> DESLOCAMENTO)].get((int) (inicio & MASCARA), destino, off, n);
+            inicio += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Copia "len" bytes de "origem" (a partir de "off") para a posição "inicio". */
+    public void copiarDe(byte[] origem, int off, long inicio, int len) {
+        while (len > 0) {
+            int n = Math.min(len, contiguosAPartirDe(inicio));
+            segmentos[(int) (inicio >>> DESLOCAMENTO)].put((int) (inicio & MASCARA), origem, off, n);
+            inicio += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Copia os bytes restantes de "origem" (sem alterar a posição) para a posição "inicio". */
+    public void copiarDe(ByteBuffer origem, long inicio) {
+        int off = origem.position();
+        int len = origem.remaining();
+        while (len > 0) {
+            int n = Math.min(len, contiguosAPartirDe(inicio));
+            segmentos[(int) (inicio >>> DESLOCAMENTO)].put((int) (inicio & MASCARA), origem, off, n);
+            inicio += n;
+            off += n;
+            len -= n;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * O caminho binário não aloca por byte enviado: o vetor fora do heap vai
+ * para o socket em fatias e o receptor lê para buffers diretos
+ * reaproveitados. Só custos fixos por lote e por chunk são aceitos.
+ *
+ * Mede de dois jeitos, em regime (depois de aquecer):
+ *  - getThreadAllocatedBytes por thread, contra um receptor neste processo:
+ *    a thread de teste envia os lotes; as demais threads (as portadoras das
+ *    threads virtuais das conexões do receptor e da leitora da sessão, e o
+ *    pool de contagem) são o lado que recebe;
+ *  - gc.alloc.rate.norm do JMH (-prof gc) na rodada completa de
+ *    PontaAPontaBench com o vetor fora do heap.
+ */
+class AlocacaoEnvioTest {
+
+    private static final int MB = 1024 * 1024;
+    private static final int TAMANHO = 64 * MB;
+    private static final int RODADAS_AQUECIMENTO = 30;
+    private static final int RODADAS = 20;
+
+    // Bytes alocados por MB enviado
+    private static final long MAXIMO_ENVIO_POR_MB = 512;
+    private static final long MAXIMO_RECEPCAO_POR_MB = 4096;
+    private static final long MAXIMO_RODADA_POR_MB = 8192;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static ServerSocket serverSocket;
+    private static PrintStream saida;
+
+    @BeforeAll
+    static void subirReceptor() throws IOException {
+        assertTrue(THREADS.isThreadAllocatedMemorySupported(), "JVM sem medição de alocação por thread");
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        serverSocket = ReceptorServer.abrirServidor(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread servidor = new Thread(() -> {
+            try {
+                ReceptorServer.servir(serverSocket);
+            } catch (IOException e) {
+                // fechado no fim
+            }
+        });
+        servidor.setDaemon(true);
+        servidor.start();
+        saida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterAll
+    static void derrubarReceptor() throws IOException {
+        System.setOut(saida);
+        serverSocket.close();
+    }
+
+    @Test
+    void envioERecepcaoNaoAlocamPorByte() throws Exception {
+        VetorSegmentado vetor = GeradorVetor.gerar(TAMANHO, 42);
+        byte procurado = 5;
+        long esperado = 0;
+        for (long i = 0; i < TAMANHO; i++) {
+            if (vetor.get(i) == procurado) esperado++;
+        }
+
+        try (CanalReceptor canal = CanalReceptor.abrir("127.0.0.1:" + serverSocket.getLocalPort())) {
+            assertEquals("binário", canal.protocolo());
+            for (int i = 0; i < RODADAS_AQUECIMENTO; i++) {
+                assertEquals(esperado, rodada(canal, vetor, procurado));
+            }
+
+            long[] ids = THREADS.getAllThreadIds();
+            Map<Long, Long> antes = alocadoPorThread(ids);
+            long envio0 = THREADS.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < RODADAS; i++) {
+                rodada(canal, vetor, procurado);
+            }
+            long envio = THREADS.getCurrentThreadAllocatedBytes() - envio0;
+            long recepcao = 0;
+            long eu = Thread.currentThread().threadId();
+            for (Map.Entry<Long, Long> e : alocadoPorThread(THREADS.getAllThreadIds()).entrySet()) {
+                if (e.getKey() == eu) continue;
+                recepcao += e.getValue() - antes.getOrDefault(e.getKey(), 0L);
+            }
+
+            long mbs = (long) RODADAS * TAMANHO / MB;
+            assertTrue(envio / mbs <= MAXIMO_ENVIO_POR_MB,
+                    "envio alocou " + envio / mbs + " bytes por MB (máximo " + MAXIMO_ENVIO_POR_MB + ")");
+            assertTrue(recepcao / mbs <= MAXIMO_RECEPCAO_POR_MB,
+                    "recepção alocou " + recepcao / mbs + " bytes por MB (máximo " + MAXIMO_RECEPCAO_POR_MB + ")");
+            canal.encerrar();
+        }
+    }
+
+    /** Um lote com o vetor inteiro, em chunks, e a resposta. */
+    private static long rodada(CanalReceptor canal, VetorSegmentado vetor, byte procurado) throws Exception {
+        canal.iniciarLote(vetor, procurado);
+        canal.enviar(new Distribuidor.Intervalo(0, vetor.tamanho()));
+        int id = canal.fecharLote();
+        CanalReceptor.RespostaRecebida r = canal.receberResposta();
+        assertEquals(id, r.requestId);
+        return r.contagem;
+    }
+
+    private static Map<Long, Long> alocadoPorThread(long[] ids) {
+        long[] alocados = THREADS.getThreadAllocatedBytes(ids);
+        Map<Long, Long> porThread = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (alocados[i] >= 0) porThread.put(ids[i], alocados[i]);
+        }
+        return porThread;
+    }
+
+    @Test
+    void rodadaCompletaNoJmh() throws Exception {
+        Options opcoes = new OptionsBuilder()
+                .include("bench.PontaAPontaBench.rodada")
+                .param("protocolo", "binario")
+                .param("vetor", "direto")
+                .param("tamanho", String.valueOf(TAMANHO))
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .forks(1)
+                .build();
+        RunResult resultado = new Runner(opcoes).runSingle();
+        Result<?> porRodada = resultado.getSecondaryResults().get("gc.alloc.rate.norm");
+        double porMb = porRodada.getScore() / (TAMANHO / MB);
+        assertTrue(porMb <= MAXIMO_RODADA_POR_MB,
+                String.format("rodada alocou %.0f bytes por MB (máximo %d)", porMb, MAXIMO_RODADA_POR_MB));
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Cada kernel de KernelContagem.todos() contra o escalar: tamanhos de borda,
+ * deslocamentos desalinhados (caudas de 0 até um vetor inteiro) e todos os
+ * valores de byte, sobre byte[], buffer com array e buffer direto.
+ */
+class KernelContagemTest {
+
+    static Stream<KernelContagem> kernels() {
+        return Arrays.stream(KernelContagem.todos());
+    }
+
+    /** O build sobe a JVM com --add-modules jdk.incubator.vector. */
+    @Test
+    void vetorialEntraNosKernelsComOModulo() {
+        assertTrue(kernels().anyMatch(k -> k.nome().equals("vetorial")));
+        assertEquals("vetorial", KernelContagem.selecionar("vetorial").nome());
+    }
+
+    @Test
+    void nomeDesconhecidoCaiNoSwar() {
+        assertEquals("swar", KernelContagem.selecionar("nenhum").nome());
+    }
+
+    @ParameterizedTest
+    @MethodSource("kernels")
+    void bordasECaudas(KernelContagem k) {
+        KernelContagem referencia = new KernelEscalar();
+        Random rnd = new Random(7);
+        byte[] dados = new byte[320];
+        ByteBuffer direto = ByteBuffer.allocateDirect(dados.length);
+        for (int rodada = 0; rodada < 4; rodada++) {
+            // rodada 0: tudo igual; demais: poucos valores distintos para gerar muitos acertos
+            for (int i = 0; i < dados.length; i++) {
+                dados[i] = rodada == 0 ? (byte) -128 : (byte) (rnd.nextInt(3 * rodada) - 128 + rnd.nextInt(2) * 255);
+            }
+            direto.put(0, dados);
+            for (int inicio = 0; inicio < 16; inicio++) {
+                for (int len = 0; len <= 258; len++) {
+                    for (int v = -128; v <= 127; v++) {
+                        byte procurado = (byte) v;
+                        int esperado = referencia.contar(dados, inicio, len, procurado);
+                        String caso = k.nome() + " inicio=" + inicio + " len=" + len + " procurado=" + v;
+                        assertEquals(esperado, k.contar(dados, inicio, len, procurado), caso);
+                        assertEquals(esperado, k.contar(direto.slice(inicio, len), procurado), caso + " direto");
+                        assertEquals(esperado, k.contar(ByteBuffer.wrap(dados, inicio, len), procurado), caso + " wrap");
+                    }
+                }
+            }
+        }
+    }
+
+    /** Buffer direto maior que o rascunho do vetorial, com position/limit no meio. */
+    @ParameterizedTest
+    @MethodSource("kernels")
+    void bufferDiretoGrande(KernelContagem k) {
+        byte[] dados = new byte[100_003];
+        GeradorVetor.preencher(dados, 11);
+        ByteBuffer direto = ByteBuffer.allocateDirect(dados.length).put(0, dados);
+        direto.position(5).limit(dados.length - 3);
+        for (byte procurado : new byte[] { -100, 0, 42, 100, 127 }) {
+            int esperado = new KernelEscalar().contar(dados, 5, dados.length - 8, procurado);
+            assertEquals(esperado, k.contar(direto, procurado), k.nome() + " procurado=" + procurado);
+            assertEquals(5, direto.position());
+        }
+    }
+}